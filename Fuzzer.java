@@ -1,17 +1,97 @@
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 public class Fuzzer {
     
-    private static final Random random = new Random();
-    private static int totalTestsRun = 0;
-    private static int failedTests = 0;
-    private final static Set<String> uniqueErrors = new HashSet<>();
+    // Seed every random stream is derived from, set with --seed or restored with --resume
+    private static long campaignSeed = new SplittableRandom().nextLong();
+    private static final AtomicLong nextStream = new AtomicLong();
+    // Each thread draws its scheduling decisions from its own stream; see RandomStream
+    private static final ThreadLocal<RandomStream> randomStreams =
+        ThreadLocal.withInitial(() -> new RandomStream(nextStream.getAndIncrement()));
+    private static final AtomicInteger totalTestsRun = new AtomicInteger();
+    private static final AtomicInteger failedTests = new AtomicInteger();
+    private static final AtomicInteger hangs = new AtomicInteger();
+    // Crashes deduplicated by the signature of their exit code and normalized output
+    private final static Map<Long, CrashBucket> crashBuckets = new ConcurrentHashMap<>();
+
+    // Worker pool running the target processes, sized with --jobs
+    private static ExecutorService executor;
+    private static int jobs = 1;
+    // Number of target processes kept started and waiting on stdin, set with --prespawn
+    private static int prespawn = 0;
+    // Pass inputs as a file the target's stdin is redirected from rather than a pipe, set with --stdin-file
+    private static boolean stdinFile = false;
+    // Base number of mutants per corpus entry in each phase, scaled by the power schedule; set with --mutations
+    private static int mutationsPerSeed = 50;
+    // Run the target through "sh -c" / "cmd.exe /c" instead of executing it directly, set with --shell
+    private static boolean useShell = false;
+    private static final List<String> targetArgs = new ArrayList<>();
+    private static final Map<String, String> targetEnv = new LinkedHashMap<>();
+
+    // Per-execution time limit; calibrated from the seed runtimes unless given with --timeout
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    private static final long MIN_TIMEOUT_MILLIS = 100;
+    private static final int CALIBRATION_RUNS = 3;
+    private static final int CALIBRATION_SEEDS = 32;
+    private static volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    // Shrink the input of every crash bucket after the campaign, disabled with --no-minimize
+    private static boolean minimizeCrashes = true;
+    private static final int MAX_MINIMIZATION_EXECUTIONS = 2000;
+    private static final ScheduledExecutorService watchdog =
+        Executors.newSingleThreadScheduledExecutor(daemonThreads("watchdog"));
+
+    // Hunting for slow and memory-hungry inputs, set with --complexity, --max-time and --max-rss; see Complexity
+    private static boolean complexityMode = false;
+    private static Complexity complexity;
+    // Read the peak RSS of every target process from /proc, which --complexity and --max-rss need
+    private static boolean samplePeakRss = false;
+
+    // Inputs whose result is remembered so they are not run again, set with --cache-size; 0 disables it
+    private static int resultCacheSize = 16384;
+
+    // Bytes of target output kept per execution, set with --max-output
+    private static int maxOutputBytes = 64 * 1024;
+    private static final ExecutorService outputDrainers = Executors.newCachedThreadPool(daemonThreads("output"));
     
     private static final String[] VALID_HTML5_TAGS = {
         "div", "span", "p", "section", "article", "nav", "header", "footer",
@@ -23,6 +103,32 @@ public class Fuzzer {
         "data-test", "role", "aria-label"
     };
 
+    // Byte forms of the snippets used by the mutators, encoded once instead of per mutant
+    private static final byte[][] OPEN_TAGS = Arrays.stream(VALID_HTML5_TAGS).map(tag -> utf8("<" + tag + ">")).toArray(byte[][]::new);
+    private static final byte[][] CLOSE_TAGS = Arrays.stream(VALID_HTML5_TAGS).map(tag -> utf8("</" + tag + ">")).toArray(byte[][]::new);
+    private static final byte[][] ATTRIBUTE_PREFIXES = Arrays.stream(VALID_ATTRIBUTES).map(attr -> utf8(" " + attr + "=\"")).toArray(byte[][]::new);
+    private static final byte[][] LOREM_WORDS = Arrays.stream(new String[] {
+        "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"
+    }).map(word -> utf8(word + " ")).toArray(byte[][]::new);
+    private static final byte[][] VALID_UNICODE = Arrays.stream(new String[] {
+        "Hello 你好 สวัสดี नमस्ते", 
+        "Multiple Scripts العربية עברית",
+        "Emojis 👋 🌍 🌟 ♥️"
+    }).map(Fuzzer::utf8).toArray(byte[][]::new);
+    private static final byte[][] VALID_STRUCTURES = Arrays.stream(new String[] {
+        "<header><h1>Header</h1></header>",
+        "<nav><ul><li>Nav Item</li></ul></nav>",
+        "<main><article><section>Content</section></article></main>",
+        "<footer><p>Footer</p></footer>"
+    }).map(Fuzzer::utf8).toArray(byte[][]::new);
+    private static final byte[] BODY_TAG = utf8("<body");
+    private static final byte[] VALID_CONTENT = utf8("Valid Content");
+    private static final byte[] DEEP_NESTED_CONTENT = utf8("Deep nested content");
+    private static final byte[] DIV_OPEN = utf8("<div>");
+    private static final byte[] DIV_CLOSE = utf8("</div>");
+    private static final byte[] ATTRIBUTE_VALUE_CHARS = utf8("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_");
+    private static final int MAX_HAVOC_BLOCK = 32;
+
     private static final List<String> SEED_INPUTS = Arrays.asList(
         "<html><head><title>Test</title></head><body><p>Hello World</p></body></html>",
         "<html><head><title>Form</title></head><body><div><p>Content</p></div></body></html>",
@@ -417,313 +523,4336 @@ public class Fuzzer {
     
     );
 
+    // Where the campaign starts from: SEED_INPUTS, or the files of the directory given with --seeds
+    private static Seeds seeds;
+
+    // Inputs worth mutating: the seeds plus every passing input that showed new behaviour
+    private static final Corpus corpus = new Corpus();
+    // Throughput, latency and per-mutator yield; see Metrics
+    private static Metrics metrics;
+    // Picks the next mutator, favouring the ones that found new behaviour; see MutatorScheduler
+    private static MutatorScheduler scheduler;
+    // When to stop, set with --duration, --max-execs and --plateau; see Budget
+    private static Budget budget;
+    // Seconds between status lines, set with --status-interval; --metrics-port serves the metrics over HTTP
+    private static int statusIntervalSeconds = 5;
+    private static int metricsPort = 0;
+    // Where corpus, crashes, hangs and checkpoints are written, set with --out; null keeps everything in memory
+    private static CampaignStore store;
+    // Shares corpus entries and crashes with other fuzzers through a coordinator, set with --sync
+    private static SyncClient syncClient;
+    private static int syncIntervalSeconds = 10;
+
+    // One mutation buffer per thread, reused for every mutant that thread generates
+    private static final ThreadLocal<MutationBuffer> mutationBuffers = ThreadLocal.withInitial(MutationBuffer::new);
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: java Fuzzer.java \"<command_to_fuzz>\"");
+        try {
+            fuzz(args);
+        } finally {
+            // The HTTP server's dispatcher is not a daemon thread and would keep the JVM alive after an exception
+            if (metrics != null) {
+                metrics.stop();
+            }
+        }
+    }
+
+    private static void fuzz(String[] args) {
+        List<String> positional = new ArrayList<>();
+        String outputDirectory = null;
+        String benchmarkOutput = null;
+        boolean resume = false;
+        long durationSeconds = 0;
+        long maxExecutions = 0;
+        long plateauSeconds = 0;
+        String replay = null;
+        String harnessJar = null;
+        int coordinatorPort = 0;
+        String syncAddress = null;
+        String seedDirectory = null;
+        long maxTimeMillis = 0;
+        long maxRssMegabytes = 0;
+        long scalingMegabytes = 0;
+        // Calibrated from the seeds unless given
+        boolean calibrateTimeout = true;
+        boolean seedGiven = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--jobs" -> jobs = Integer.parseInt(optionValue(args, ++i));
+                case "--prespawn" -> prespawn = Integer.parseInt(optionValue(args, ++i));
+                case "--mutations" -> mutationsPerSeed = Integer.parseInt(optionValue(args, ++i));
+                case "--seeds" -> seedDirectory = optionValue(args, ++i);
+                case "--out" -> outputDirectory = optionValue(args, ++i);
+                case "--resume" -> resume = true;
+                case "--no-minimize" -> minimizeCrashes = false;
+                case "--complexity" -> complexityMode = true;
+                case "--max-time" -> maxTimeMillis = Long.parseLong(optionValue(args, ++i));
+                case "--max-rss" -> maxRssMegabytes = Long.parseLong(optionValue(args, ++i));
+                case "--duration" -> durationSeconds = Long.parseLong(optionValue(args, ++i));
+                case "--max-execs" -> maxExecutions = Long.parseLong(optionValue(args, ++i));
+                case "--plateau" -> plateauSeconds = Long.parseLong(optionValue(args, ++i));
+                case "--seed" -> {
+                    campaignSeed = Long.parseLong(optionValue(args, ++i));
+                    seedGiven = true;
+                }
+                case "--replay" -> replay = optionValue(args, ++i);
+                case "--bench" -> benchmarkOutput = optionValue(args, ++i);
+                case "--scaling" -> scalingMegabytes = Long.parseLong(optionValue(args, ++i));
+                case "--status-interval" -> statusIntervalSeconds = Integer.parseInt(optionValue(args, ++i));
+                case "--metrics-port" -> metricsPort = Integer.parseInt(optionValue(args, ++i));
+                case "--quiet" -> Log.level = LogLevel.QUIET;
+                case "--verbose" -> Log.level = LogLevel.VERBOSE;
+                case "--jar" -> harnessJar = optionValue(args, ++i);
+                case "--coordinator" -> coordinatorPort = Integer.parseInt(optionValue(args, ++i));
+                case "--sync" -> syncAddress = optionValue(args, ++i);
+                case "--sync-interval" -> syncIntervalSeconds = Integer.parseInt(optionValue(args, ++i));
+                case "--shell" -> useShell = true;
+                case "--stdin-file" -> stdinFile = true;
+                case "--timeout" -> {
+                    timeoutMillis = Long.parseLong(optionValue(args, ++i));
+                    calibrateTimeout = false;
+                }
+                case "--max-output" -> maxOutputBytes = Integer.parseInt(optionValue(args, ++i));
+                case "--cache-size" -> resultCacheSize = Integer.parseInt(optionValue(args, ++i));
+                case "--arg" -> targetArgs.add(optionValue(args, ++i));
+                case "--env" -> {
+                    String variable = optionValue(args, ++i);
+                    int separator = variable.indexOf('=');
+                    if (separator <= 0) {
+                        throw new IllegalArgumentException("Expected NAME=VALUE for --env but got '%s'.".formatted(variable));
+                    }
+                    targetEnv.put(variable.substring(0, separator), variable.substring(separator + 1));
+                }
+                default -> positional.add(args[i]);
+            }
+        }
+        if (coordinatorPort > 0) {
+            new Coordinator().serve(coordinatorPort);
+            return;
+        }
+        if (positional.size() != 1 || jobs < 1 || prespawn < 0 || mutationsPerSeed < 1 || timeoutMillis < 1 || maxOutputBytes < 1
+                || (resume && outputDirectory == null) || statusIntervalSeconds < 0 || metricsPort < 0
+                || durationSeconds < 0 || maxExecutions < 0 || plateauSeconds < 0
+                || (replay != null && outputDirectory == null) || resultCacheSize < 0 || resultCacheSize > CachingTarget.MAX_CAPACITY || syncIntervalSeconds < 1
+                || maxTimeMillis < 0 || maxRssMegabytes < 0 || scalingMegabytes < 0 || (scalingMegabytes > 0 && harnessJar != null)) {
+            System.err.println("Usage: java Fuzzer.java [--jobs N] [--prespawn K] [--mutations N] [--seeds DIR] [--out DIR [--resume]] [--duration S] [--max-execs N] [--plateau S] [--seed N] [--replay STREAM:INDEX] [--no-minimize] [--complexity] [--max-time MS] [--max-rss MB] [--bench RESULTS_JSON] [--scaling MAX_MB] [--status-interval S] [--metrics-port PORT] [--quiet | --verbose] [--timeout MS] [--max-output BYTES] [--cache-size N] [--sync HOST:PORT [--sync-interval S]] [--shell] [--stdin-file] [--arg ARG]... [--env NAME=VALUE]... \"<command_to_fuzz>\"");
+            System.err.println("       java Fuzzer.java [options] --jar HARNESS_JAR \"<class>#<method>\"");
+            System.err.println("       java Fuzzer.java --coordinator PORT");
             System.exit(1);
         }
     
-        String commandToFuzz = args[0];
+        String commandToFuzz = positional.get(0);
         String workingDirectory = "./";
     
-        if (!Files.exists(Paths.get(workingDirectory, commandToFuzz))) {
+        if (harnessJar == null && !Files.exists(Paths.get(workingDirectory, commandToFuzz))) {
             throw new RuntimeException("Could not find command '%s'.".formatted(commandToFuzz));
         }
     
-        ProcessBuilder builder = getProcessBuilderForCommand(commandToFuzz, workingDirectory);
-        
-        List<Function<String, String>> mutators = Arrays.asList(
-            input -> addValidElement(input),
-            input -> addDeepValidNesting(input),
-            input -> addLongValidContent(input),
-            input -> addValidAttributes(input),
-            input -> addComplexUnicode(input),
-            input -> modifyValidStructure(input)
+        seeds = seedDirectory != null ? Seeds.directory(Paths.get(seedDirectory)) : Seeds.builtIn();
+        if (!seeds.isBuiltIn()) {
+            Log.info("Seeds: %d files in %s".formatted(seeds.size(), seedDirectory));
+        }
+
+        List<Mutator> mutators = Arrays.asList(
+            new Mutator("addValidElement", buffer -> addValidElement(buffer)),
+            new Mutator("addDeepValidNesting", buffer -> addDeepValidNesting(buffer)),
+            new Mutator("addLongValidContent", buffer -> addLongValidContent(buffer)),
+            new Mutator("addValidAttributes", buffer -> addValidAttributes(buffer)),
+            new Mutator("addComplexUnicode", buffer -> addComplexUnicode(buffer)),
+            new Mutator("modifyValidStructure", buffer -> modifyValidStructure(buffer)),
+            new Mutator("flipBit", buffer -> flipBit(buffer)),
+            new Mutator("insertRandomBytes", buffer -> insertRandomBytes(buffer)),
+            new Mutator("deleteBytes", buffer -> deleteBytes(buffer)),
+            new Mutator("spliceBlock", buffer -> spliceBlock(buffer)),
+            new Mutator("deleteElement", buffer -> deleteElement(buffer)),
+            new Mutator("duplicateElement", buffer -> duplicateElement(buffer)),
+            new Mutator("replaceWithSeedElement", buffer -> replaceWithSeedElement(buffer)),
+            new Mutator("insertSeedElement", buffer -> insertSeedElement(buffer)),
+            new Mutator("addAttribute", buffer -> addAttribute(buffer)),
+            new Mutator("removeAttributes", buffer -> removeAttributes(buffer)),
+            new Mutator("wrapElement", buffer -> wrapElement(buffer)),
+            new Mutator("unwrapElement", buffer -> unwrapElement(buffer))
         );
 
-        System.out.println("\n=== Phase 1: Running all seeds without backtracking ===");
-        for (int seedIndex = 0; seedIndex < SEED_INPUTS.size(); seedIndex++) {
-            String seed = SEED_INPUTS.get(seedIndex);
-            System.out.printf("\nTesting seed %d/%d without backtracking:\n", seedIndex + 1, SEED_INPUTS.size());
-            List<String> mutations = getMutatedInputsWithoutBacktracking(seed, mutators);
-            testWithoutBacktracking(builder, seed, mutations);
+        metrics = new Metrics(mutators);
+        scheduler = new MutatorScheduler(mutators);
+
+        if (outputDirectory != null) {
+            Log.inputLogFile = Paths.get(outputDirectory, "inputs.log");
+            store = new CampaignStore(Paths.get(outputDirectory), resume || replay != null);
+            if (resume || replay != null) {
+                if (seedGiven) {
+                    throw new IllegalArgumentException("A resumed campaign keeps its seed, --seed cannot be changed.");
+                }
+                store.resume();
+            }
+            if (replay == null) {
+                Log.testCaseLogFile = store.testCaseLogFile();
+            }
         }
-    
-        System.out.println("\n=== Phase 2: Running all seeds with backtracking ===");
-        for (int seedIndex = 0; seedIndex < SEED_INPUTS.size(); seedIndex++) {
-            String seed = SEED_INPUTS.get(seedIndex);
-            System.out.printf("\nTesting seed %d/%d with backtracking:\n", seedIndex + 1, SEED_INPUTS.size());
-            testWithBacktracking( seed, mutators, commandToFuzz);
+        if (replay != null) {
+            boolean exact;
+            try (Target target = createTarget(harnessJar, commandToFuzz, workingDirectory, 0)) {
+                exact = replay(target, mutators, TestCaseId.parse(replay));
+            }
+            if (!exact) {
+                System.exit(1);
+            }
+            return;
+        }
+        Log.info("Campaign seed: " + campaignSeed);
+        budget = new Budget(durationSeconds, maxExecutions, plateauSeconds);
+        if (complexityMode || maxRssMegabytes > 0 || scalingMegabytes > 0) {
+            samplePeakRss = harnessJar == null && Files.isReadable(Paths.get("/proc/self/status"));
+            if (!samplePeakRss) {
+                Log.info("Peak RSS is only measured for processes on Linux; memory is not part of the cost");
+            }
+        }
+
+        Target target = createTarget(harnessJar, commandToFuzz, workingDirectory, prespawn);
+        executor = Executors.newFixedThreadPool(jobs, daemonThreads("worker"));
+
+        if (benchmarkOutput != null) {
+            new Benchmarks(target, mutators).run(Paths.get(benchmarkOutput));
+            executor.shutdown();
+            target.close();
+            return;
+        }
+        if (scalingMegabytes > 0) {
+            new ScalingSweep((ProcessTarget) target, scalingMegabytes << 20).run();
+            executor.shutdown();
+            target.close();
+            return;
+        }
+
+        if (calibrateTimeout) {
+            calibrateTimeout(target);
+        }
+        Log.info("Timeout per execution: " + timeoutMillis + " ms");
+        if (complexityMode || maxTimeMillis > 0 || maxRssMegabytes > 0) {
+            complexity = new Complexity(target, maxTimeMillis, maxRssMegabytes);
+        }
+        // Only after calibrating, which needs every run to be a real one
+        if (resultCacheSize > 0) {
+            target = new CachingTarget(target, resultCacheSize);
+        }
+
+        for (int i = 0; i < seeds.size(); i++) {
+            if (seeds.isBuiltIn()) {
+                corpus.add(seeds.get(i));
+            } else {
+                corpus.addSeedFile(i);
+            }
+        }
+        ScheduledFuture<?> statusLine = statusIntervalSeconds > 0
+            ? watchdog.scheduleAtFixedRate(() -> Log.info(metrics.statusLine()),
+                statusIntervalSeconds, statusIntervalSeconds, TimeUnit.SECONDS)
+            : null;
+        if (metricsPort > 0) {
+            metrics.serve(metricsPort);
+        }
+        ScheduledExecutorService syncer = null;
+        if (syncAddress != null) {
+            syncClient = new SyncClient(syncAddress);
+            syncer = Executors.newSingleThreadScheduledExecutor(daemonThreads("sync"));
+            syncer.scheduleWithFixedDelay(syncClient::sync, 0, syncIntervalSeconds, TimeUnit.SECONDS);
+        }
+
+        if (budget.isLimited()) {
+            Log.info("\n=== Fuzzing until the budget is used: " + budget + " ===");
+            // Alternate between independent mutants of one entry and a backtracking chain per worker
+            for (long round = 0; !budget.exhausted(); round++) {
+                if (round % 2 == 0) {
+                    runIndependentMutants(target, mutators, corpus.select(randomStreams.get().random()));
+                } else {
+                    List<Corpus.Entry> entries = new ArrayList<>();
+                    for (int i = 0; i < jobs; i++) {
+                        entries.add(corpus.select(randomStreams.get().random()));
+                    }
+                    runChains(target, mutators, entries);
+                }
+            }
+            Log.info("Stopped: " + budget.stopReason());
+        } else {
+            Log.info("\n=== Phase 1: Running all corpus entries without backtracking ===");
+            List<Corpus.Entry> queue = corpus.snapshot();
+            for (int entryIndex = 0; entryIndex < queue.size(); entryIndex++) {
+                if (Log.isVerbose()) {
+                    Log.verbose("\nTesting corpus entry %d/%d without backtracking:".formatted(entryIndex + 1, queue.size()));
+                }
+                runIndependentMutants(target, mutators, queue.get(entryIndex));
+            }
+
+            Log.info("\n=== Phase 2: Running corpus entries with backtracking ===");
+            runChains(target, mutators, corpus.snapshot());
+        }
+
+        if (minimizeCrashes && !crashBuckets.isEmpty()) {
+            Log.info("\n=== Minimizing crash buckets ===");
+            for (CrashBucket bucket : crashBuckets.values()) {
+                // Buckets only pulled from the coordinator are left to the worker that found them
+                if (bucket.hits() > 0) {
+                    new Minimizer(target, bucket).run();
+                }
+            }
+        }
+        if (complexity != null) {
+            complexity.finish();
+        }
+        executor.shutdown();
+        target.close();
+        if (statusLine != null) {
+            statusLine.cancel(false);
+        }
+        if (syncer != null) {
+            syncer.shutdown();
+            try {
+                syncer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Share the last finds, including minimized inputs, before exiting
+            syncClient.sync();
         }
+        // The summary goes straight to the console, after everything still queued
+        Log.flush();
     
         
         printSummary();
+        metrics.printSummary();
+        corpus.printSummary();
+        scheduler.printSummary();
+        if (complexity != null) {
+            complexity.printSummary();
+        }
+        target.printSummary();
+        if (syncClient != null) {
+            syncClient.printSummary();
+        }
+        if (store != null) {
+            System.out.println("\nCampaign state saved to " + store.root());
+        }
         
-        if (failedTests > 0) {
+        if (failedTests.get() > 0 || hangs.get() > 0 || (complexity != null && complexity.reports() > 0)) {
             System.exit(1);
         }
     }
 
-    private static void getMutatedInputsWithBacktracking(String seedInput, Collection<Function<String, String>> mutators, String commandToFuzz) {
-        ProcessBuilder testBuilder = getProcessBuilderForCommand(commandToFuzz, "./");
-        String lastSuccessfulMutation = seedInput;
+    /**
+     * Runs the first seeds a few times and sets the timeout to five times the slowest run, so fast
+     * targets get a tight budget for detecting hangs.
+     */
+    private static void calibrateTimeout(Target target) {
+        long slowestNanos = 0;
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            for (int seed = 0; seed < Math.min(seeds.size(), CALIBRATION_SEEDS); seed++) {
+                try {
+                    ExecutionResult result = target.run(seeds.get(seed).data());
+                    if (!result.timedOut()) {
+                        corpus.recordDuration(result.durationNanos());
+                        slowestNanos = Math.max(slowestNanos, result.durationNanos());
+                    }
+                } catch (IOException e) {
+                    // Seeds that cannot be run are reported by phase 1
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        timeoutMillis = Math.max(MIN_TIMEOUT_MILLIS, TimeUnit.NANOSECONDS.toMillis(slowestNanos * 5) + 1);
+    }
+
+    private static void saveCheckpoint() {
+        if (store != null) {
+            store.saveCheckpoint();
+        }
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for option '%s'.".formatted(args[index - 1]));
+        }
+        return args[index];
+    }
+
+    /** Tests mutants of one entry that each stack up to three mutations on the entry itself. */
+    private static void runIndependentMutants(Target target, List<Mutator> mutators, Corpus.Entry entry) {
+        int energy = corpus.energy(entry);
+        Iterator<TestCase> mutations = getMutatedInputsWithoutBacktracking(entry.input(), mutators, energy);
+        int findsBefore = entry.finds();
+        testWithoutBacktracking(target, entry, mutations, energy);
+        corpus.finishRound(entry, findsBefore);
+        saveCheckpoint();
+    }
+
+    /** Runs one backtracking chain per entry; the chains are sequential, so they run side by side. */
+    private static void runChains(Target target, List<Mutator> mutators, List<Corpus.Entry> entries) {
+        List<Future<?>> chains = new ArrayList<>();
+        for (int chainIndex = 0; chainIndex < entries.size(); chainIndex++) {
+            Corpus.Entry entry = entries.get(chainIndex);
+            int energy = corpus.energy(entry);
+            int chainNumber = chainIndex + 1;
+            chains.add(executor.submit(() -> {
+                if (Log.isVerbose()) {
+                    Log.verbose("\nTesting chain %d/%d with backtracking (%d mutations):".formatted(chainNumber, entries.size(), energy));
+                }
+                int findsBefore = entry.finds();
+                testWithBacktracking(entry, mutators, target, energy);
+                corpus.finishRound(entry, findsBefore);
+                saveCheckpoint();
+            }));
+        }
+        awaitAll(chains);
+    }
+
+    /**
+     * Regenerates a logged test case without its bytes having been stored, and runs it once.
+     * Returns whether every step of its lineage gave the input that was logged.
+     */
+    private static boolean replay(Target target, List<Mutator> mutators, TestCaseId id) {
+        // Start from the stored corpus entry the test case descends from, then regenerate forwards
+        Deque<String[]> lineage = store.readLineage(id);
+        String parent = lineage.peekFirst()[1];
+        TestCase testCase = store.readStoredEntry(Long.parseUnsignedLong(parent.substring("corpus/".length()), 16));
+        boolean exact = true;
+        MutationBuffer buffer = new MutationBuffer();
+        for (String[] record : lineage) {
+            buffer.load(testCase, TestCaseId.parse(record[0]));
+            if (!record[2].equals("-")) {
+                for (String index : record[2].split(",")) {
+                    int mutatorIndex = Integer.parseInt(index);
+                    mutators.get(mutatorIndex).apply(buffer);
+                    buffer.recordMutator(mutatorIndex);
+                }
+            }
+            testCase = buffer.toTestCase();
+            if (!CampaignStore.fileName(hash64(testCase.data())).equals(record[3])) {
+                exact = false;
+                Log.error("Regenerating test case " + record[0] + " gave a different input than logged.",
+                    new IllegalStateException("Mutators or campaign seed differ from the run that logged it"));
+            }
+        }
+        Log.flush();
+
+        System.out.printf("Replaying test case %s (%d bytes):%n%s%n", id, testCase.data().length, testCase.text());
+        try {
+            ExecutionResult result = target.run(testCase.data());
+            if (result.timedOut()) {
+                System.out.println("\nHang: killed after " + timeoutMillis + " ms");
+            } else {
+                System.out.println("\nExit code: " + result.exitCode());
+                if (result.exitCode() != 0) {
+                    System.out.printf("Crash signature: %016x%n", crashSignature(result.exitCode(), result.output(), testCase.text()));
+                    System.out.println("Program output: " + result.output());
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("Could not run test case " + id, e);
+        }
+        return exact;
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void getMutatedInputsWithBacktracking(Corpus.Entry seedEntry, List<Mutator> mutators, Target target, int numberOfMutations) {
+        MutationBuffer buffer = mutationBuffers.get();
+        TestCase lastSuccessfulMutation = seedEntry.input();
+        // Cost of lastSuccessfulMutation, which --complexity compares mutants against; null until one has run
+        ExecutionResult lastSuccessfulResult = null;
         
-        for (int i = 0; i < 50; i++) {
-            System.out.println("\nMutation " + (i+1) + "/50:");
-            String currentInput = lastSuccessfulMutation;  // Start from last successful state
+        for (int i = 0; i < numberOfMutations && !budget.exhausted(); i++) {
+            if (Log.isVerbose()) {
+                Log.verbose("\nMutation " + (i+1) + "/" + numberOfMutations + ":");
+            }
+            buffer.load(lastSuccessfulMutation);  // Start from last successful state
             
             // Apply a single mutation
-            Function<String, String> mutator = new ArrayList<>(mutators)
-                .get(random.nextInt(mutators.size()));
-            currentInput = mutator.apply(currentInput);
-            totalTestsRun++;
+            int mutatorIndex = scheduler.select(randomStreams.get().random());
+            mutators.get(mutatorIndex).apply(buffer);
+            buffer.recordMutator(mutatorIndex);
+            TestCase currentInput = buffer.toTestCase();
+            totalTestsRun.incrementAndGet();
             
             try {
-
-                Process process = testBuilder.start();
-                try (OutputStreamWriter writer = new OutputStreamWriter(process.getOutputStream())) {
-                    writer.write(currentInput);
-                    writer.flush();
-                }
-                
-                int result = process.waitFor();
+                ExecutionResult result = target.run(currentInput.data());
                 
-                if (result != 0) {
-                    failedTests++;
-                    String output = readStreamIntoString(process.getInputStream());
-                    System.out.println("\nFound crash with input:");
-                    System.out.println(currentInput);
-                    System.out.println("Exit code: " + result);
-                    if (!output.isEmpty()) {
-                        System.out.println("Program output: " + output);
-                        uniqueErrors.add(output.trim());
-                    }
-                    
+                if (result.timedOut()) {
+                    reportHang(currentInput);
+                    metrics.recordYield(currentInput.mutators(), true, false);
+                    scheduler.reward(currentInput.mutators(), false);
+                    // Backtrack by keeping lastSuccessfulMutation unchanged
+                } else if (result.exitCode() != 0) {
+                    boolean newCrash = reportCrash(currentInput, result);
+                    boolean productive = corpus.observe(seedEntry, currentInput, result, newCrash);
+                    metrics.recordYield(currentInput.mutators(), true, newCrash);
+                    scheduler.reward(currentInput.mutators(), productive);
                     // Backtrack by keeping lastSuccessfulMutation unchanged
                 } else {
+                    boolean productive = corpus.observe(seedEntry, currentInput, result, false);
+                    metrics.recordYield(currentInput.mutators(), false, false);
+                    scheduler.reward(currentInput.mutators(), productive);
+                    if (complexity != null) {
+                        complexity.observe(currentInput, result);
+                    }
+                    if (complexityMode && !complexity.costsMore(currentInput, result, lastSuccessfulMutation, lastSuccessfulResult)) {
+                        // Backtrack, as the mutant is not costlier per byte than its base
+                        continue;
+                    }
                     // Update base for future mutations if this mutation was successful
-                    System.out.println("\nSuccessfully built upon previous mutation:");
-                    System.out.println("Previous: " + lastSuccessfulMutation);
-                    System.out.println("New: " + currentInput);
+                    if (Log.isVerbose()) {
+                        Log.verbose("Successfully built upon previous mutation (%d -> %d bytes), written to %s".formatted(
+                            lastSuccessfulMutation.data().length, currentInput.data().length, Log.inputLogFile));
+                        Log.input("Previous:", lastSuccessfulMutation.data());
+                        Log.input("New:", currentInput.data());
+                    }
                     lastSuccessfulMutation = currentInput;
+                    lastSuccessfulResult = result;
                 }
                 
             } catch (IOException | InterruptedException e) {
-                System.out.println("\nException occurred with input:");
-                System.out.println(currentInput);
-                e.printStackTrace();
+                Log.error("Exception occurred with input written to " + Log.inputLogFile, e);
+                Log.input("Input causing an exception:", currentInput.data());
                 // Backtrack by keeping lastSuccessfulMutation unchanged
             }
         }
     }
-    private static List<String> getMutatedInputsWithoutBacktracking(String seedInput, Collection<Function<String, String>> mutators) {
-        List<String> mutations = new ArrayList<>();
-        int numberOfMutations = 50;
-        
-        for (int i = 0; i < numberOfMutations; i++) {
-            System.out.println("\nMutation (" + (i+1) + "/50):");
-            String currentInput = seedInput;
-            int numMutationsToApply = random.nextInt(3) + 1;
-            
-            // Apply mutations without testing
-            for (int j = 0; j < numMutationsToApply; j++) {
-                Function<String, String> mutator = new ArrayList<>(mutators)
-                    .get(random.nextInt(mutators.size()));
-                currentInput = mutator.apply(currentInput);
+    /**
+     * Lazily generates the mutants of a seed. Nothing is generated before it is asked for, so the
+     * number of mutants per seed does not affect memory use.
+     */
+    private static Iterator<TestCase> getMutatedInputsWithoutBacktracking(TestCase seedInput, List<Mutator> mutators, int numberOfMutations) {
+        MutationBuffer buffer = mutationBuffers.get();
+        return new Iterator<>() {
+            private int generated = 0;
+            private TestCase next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && generated < numberOfMutations) {
+                    generated++;
+                    if (Log.isVerbose()) {
+                        Log.verbose("\nMutation (" + generated + "/" + numberOfMutations + "):");
+                    }
+                    buffer.load(seedInput);
+                    int numMutationsToApply = randomStreams.get().random().nextInt(3) + 1;
+                    
+                    // Apply mutations without testing
+                    for (int j = 0; j < numMutationsToApply; j++) {
+                        int mutatorIndex = scheduler.select(randomStreams.get().random());
+                        mutators.get(mutatorIndex).apply(buffer);
+                        buffer.recordMutator(mutatorIndex);
+                    }
+                    
+                    // Only hand out mutations that differ from the seed
+                    TestCase currentInput = buffer.toTestCase();
+                    if (!Arrays.equals(currentInput.data(), seedInput.data())) {
+                        next = currentInput;
+                    }
+                }
+                return next != null;
             }
-            
-            // Add mutation if it's different from seed
-            if (!currentInput.equals(seedInput)) {
-                mutations.add(currentInput);
+
+            @Override
+            public TestCase next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                TestCase mutation = next;
+                next = null;
+                return mutation;
             }
-        }
-        
-        return mutations;
+        };
     }
     private static void printSummary() {
-        System.out.println("\nUnique Error Messages Found:");
-        uniqueErrors.forEach(error -> System.out.println("- " + error));
+        System.out.println("\nCrash Buckets Found (most frequent first):");
+        crashBuckets.values().stream()
+            .sorted(Comparator.comparingLong(CrashBucket::hits).reversed())
+            .forEach(bucket -> System.out.printf("- %016x: %d hits, exit code %d, smallest input %d bytes%n  %s%n",
+                bucket.signature(), bucket.hits(), bucket.exitCode(), bucket.input().length,
+                abbreviate(bucket.output(), 120)));
+        crashBuckets.values().stream()
+            .filter(bucket -> bucket.minimized() != null)
+            .forEach(bucket -> System.out.printf("%nMinimized reproducer for %016x (%d -> %d bytes):%n%s%n",
+                bucket.signature(), bucket.input().length, bucket.minimized().length,
+                new String(bucket.minimized(), StandardCharsets.UTF_8)));
 
         System.out.println("\nFinal Results:");
-        System.out.println("Total tests run: " + totalTestsRun);
-        System.out.println("Failed tests: " + failedTests);
-        System.out.println("Unique errors found: " + uniqueErrors.size());
+        System.out.println("Total tests run: " + totalTestsRun.get());
+        System.out.println("Failed tests: " + failedTests.get());
+        System.out.println("Hangs: " + hangs.get());
+        System.out.println("Unique errors found: " + crashBuckets.size());
     }
 
-    private static String addValidElement(String input) {
-        String tag = VALID_HTML5_TAGS[random.nextInt(VALID_HTML5_TAGS.length)];
-        String newElement = String.format("<%s>Valid Content</%s>", tag, tag);
-        System.out.println(" addValidElement");
-        return insertIntoBody(input, newElement);
+    private static void addValidElement(MutationBuffer buffer) {
+        int tag = buffer.random().nextInt(VALID_HTML5_TAGS.length);
+        Log.verbose(" addValidElement");
+        if (buffer.hasBody()) {
+            buffer.insertAtBody().put(OPEN_TAGS[tag]).put(VALID_CONTENT).put(CLOSE_TAGS[tag]);
+        }
     }
 
-    private static String addDeepValidNesting(String input) {
-        int depth = random.nextInt(10) + 5; // 5-15 levels
-        StringBuilder nested = new StringBuilder();
-        Stack<String> tags = new Stack<>();
+    private static void addDeepValidNesting(MutationBuffer buffer) {
+        int depth = buffer.random().nextInt(10) + 5; // 5-15 levels
+        int[] tags = new int[depth];
         
         for (int i = 0; i < depth; i++) {
-            String tag = VALID_HTML5_TAGS[random.nextInt(VALID_HTML5_TAGS.length)];
-            nested.append("<").append(tag).append(">");
-            tags.push(tag);
+            tags[i] = buffer.random().nextInt(VALID_HTML5_TAGS.length);
+        }
+        Log.verbose(" addDeepValidNesting");
+        if (!buffer.hasBody()) {
+            return;
         }
         
-        nested.append("Deep nested content");
-        
-        while (!tags.isEmpty()) {
-            nested.append("</").append(tags.pop()).append(">");
+        buffer.insertAtBody();
+        for (int i = 0; i < depth; i++) {
+            buffer.put(OPEN_TAGS[tags[i]]);
+        }
+        buffer.put(DEEP_NESTED_CONTENT);
+        for (int i = depth - 1; i >= 0; i--) {
+            buffer.put(CLOSE_TAGS[tags[i]]);
         }
-        System.out.println(" addDeepValidNesting");
-        return insertIntoBody(input, nested.toString());
     }
 
-    private static String addLongValidContent(String input) {
-        int length = random.nextInt(100) + 50;
-        StringBuilder content = new StringBuilder();
-        String[] words = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"};
+    private static void addLongValidContent(MutationBuffer buffer) {
+        int length = buffer.random().nextInt(100) + 50;
+        Log.verbose(" addLongValidContent");
+        if (!buffer.hasBody()) {
+            return;
+        }
         
+        buffer.insertAtBody().put(DIV_OPEN);
         for (int i = 0; i < length; i++) {
-            content.append(words[random.nextInt(words.length)]).append(" ");
+            buffer.put(LOREM_WORDS[buffer.random().nextInt(LOREM_WORDS.length)]);
         }
-        
-        System.out.println(" addLongValidContent");
-        return insertIntoBody(input, "<div>" + content + "</div>");
+        buffer.put(DIV_CLOSE);
     }
 
-    private static String addValidAttributes(String input) {
-        String tag = VALID_HTML5_TAGS[random.nextInt(VALID_HTML5_TAGS.length)];
-        StringBuilder attrs = new StringBuilder();
+    private static void addValidAttributes(MutationBuffer buffer) {
+        int tag = buffer.random().nextInt(VALID_HTML5_TAGS.length);
+        int numAttrs = buffer.random().nextInt(5) + 1;
+        Log.verbose(" addValidAttributes");
+        if (!buffer.hasBody()) {
+            return;
+        }
         
-        int numAttrs = random.nextInt(5) + 1;
+        // Write "<tag" and then the attributes in front of the closing ">"
+        byte[] open = OPEN_TAGS[tag];
+        buffer.insertAtBody().put(open, 0, open.length - 1);
         for (int i = 0; i < numAttrs; i++) {
-            String attr = VALID_ATTRIBUTES[random.nextInt(VALID_ATTRIBUTES.length)];
-            String value = generateValidAttributeValue();
-            attrs.append(" ").append(attr).append("=\"").append(value).append("\"");
+            buffer.put(ATTRIBUTE_PREFIXES[buffer.random().nextInt(ATTRIBUTE_PREFIXES.length)]);
+            putValidAttributeValue(buffer);
+            buffer.put((byte) '"');
         }
-        
-        String element = String.format("<%s%s>Valid Content</%s>", tag, attrs, tag);
-        System.out.println(" addValidAttributes");
-        return insertIntoBody(input, element);
+        buffer.put((byte) '>').put(VALID_CONTENT).put(CLOSE_TAGS[tag]);
     }
 
-    private static String addComplexUnicode(String input) {
-        String[] validUnicode = {
-            "Hello 你好 สวัสดี नमस्ते", 
-            "Multiple Scripts العربية עברית",
-            "Emojis 👋 🌍 🌟 ♥️"
-        };
-        
-        String content = validUnicode[random.nextInt(validUnicode.length)];
-        System.out.println(" addComplexUnicode");
-        return insertIntoBody(input, "<div>" + content + "</div>");
+    private static void addComplexUnicode(MutationBuffer buffer) {
+        byte[] content = VALID_UNICODE[buffer.random().nextInt(VALID_UNICODE.length)];
+        Log.verbose(" addComplexUnicode");
+        if (buffer.hasBody()) {
+            buffer.insertAtBody().put(DIV_OPEN).put(content).put(DIV_CLOSE);
+        }
     }
 
-    private static String modifyValidStructure(String input) {
+    private static void modifyValidStructure(MutationBuffer buffer) {
         // Adds valid structural elements while maintaining HTML validity
-        String[] structures = {
-            "<header><h1>Header</h1></header>",
-            "<nav><ul><li>Nav Item</li></ul></nav>",
-            "<main><article><section>Content</section></article></main>",
-            "<footer><p>Footer</p></footer>"
-        };
-        System.out.println("modifyValidStructure");
-        return insertIntoBody(input, structures[random.nextInt(structures.length)]);
+        byte[] structure = VALID_STRUCTURES[buffer.random().nextInt(VALID_STRUCTURES.length)];
+        Log.verbose("modifyValidStructure");
+        if (buffer.hasBody()) {
+            buffer.insertAtBody().put(structure);
+        }
     }
 
-    private static String generateValidAttributeValue() {
-        int length = random.nextInt(50) + 10;
-        StringBuilder value = new StringBuilder();
-        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_";
-        
+    private static void putValidAttributeValue(MutationBuffer buffer) {
+        int length = buffer.random().nextInt(50) + 10;
         for (int i = 0; i < length; i++) {
-            value.append(chars.charAt(random.nextInt(chars.length())));
+            buffer.put(ATTRIBUTE_VALUE_CHARS[buffer.random().nextInt(ATTRIBUTE_VALUE_CHARS.length)]);
         }
-        
-        return value.toString();
     }
 
-    private static String insertIntoBody(String input, String content) {
-        int bodyIndex = input.toLowerCase().indexOf("<body>");
-        if (bodyIndex == -1) return input;
-        
-        int insertIndex = bodyIndex + "<body>".length();
-        return input.substring(0, insertIndex) + content + input.substring(insertIndex);
+    // Havoc mutators: byte-level changes anywhere in the input, which may make it invalid HTML
+
+    private static void flipBit(MutationBuffer buffer) {
+        Log.verbose(" flipBit");
+        if (buffer.length() > 0) {
+            buffer.flipBit(buffer.random().nextInt(buffer.length()), buffer.random().nextInt(8));
+        }
     }
 
-    private static ProcessBuilder getProcessBuilderForCommand(String command, String workingDirectory) {
-        ProcessBuilder builder = new ProcessBuilder();
-        boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
-        if (isWindows) {
-            builder.command("cmd.exe", "/c", command);
+    private static void insertRandomBytes(MutationBuffer buffer) {
+        int count = buffer.random().nextInt(MAX_HAVOC_BLOCK) + 1;
+        Log.verbose(" insertRandomBytes");
+        buffer.insertAt(buffer.random().nextInt(buffer.length() + 1));
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) buffer.random().nextInt(256));
+        }
+    }
+
+    private static void deleteBytes(MutationBuffer buffer) {
+        Log.verbose(" deleteBytes");
+        if (buffer.length() > 0) {
+            int position = buffer.random().nextInt(buffer.length());
+            buffer.delete(position, Math.min(buffer.random().nextInt(MAX_HAVOC_BLOCK) + 1, buffer.length() - position));
+        }
+    }
+
+    private static void spliceBlock(MutationBuffer buffer) {
+        // Copies a block of a random seed into the input
+        byte[] source = seeds.get(buffer.random().nextInt(seeds.size())).data();
+        int from = buffer.random().nextInt(source.length);
+        int length = Math.min(buffer.random().nextInt(MAX_HAVOC_BLOCK * 4) + 1, source.length - from);
+        Log.verbose(" spliceBlock");
+        buffer.insertAt(buffer.random().nextInt(buffer.length() + 1)).put(source, from, length);
+    }
+
+    // Structural mutators: whole-element changes anywhere in the document, found through its tag tree
+
+    private static void deleteElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        Log.verbose(" deleteElement");
+        if (tree.count > 0) {
+            int element = buffer.random().nextInt(tree.count);
+            buffer.delete(tree.start[element], tree.end[element] - tree.start[element]);
+        }
+    }
+
+    private static void duplicateElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        Log.verbose(" duplicateElement");
+        if (tree.count > 0) {
+            int element = buffer.random().nextInt(tree.count);
+            byte[] copy = buffer.copy(tree.start[element], tree.end[element]);
+            buffer.insertAt(tree.end[element]).put(copy);
+        }
+    }
+
+    private static void replaceWithSeedElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        byte[] replacement = seeds.randomElement(buffer.random());
+        Log.verbose(" replaceWithSeedElement");
+        if (tree.count > 0 && replacement != null) {
+            int element = buffer.random().nextInt(tree.count);
+            buffer.delete(tree.start[element], tree.end[element] - tree.start[element]);
+            buffer.insertAt(tree.start[element]).put(replacement);
+        }
+    }
+
+    private static void insertSeedElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        byte[] inserted = seeds.randomElement(buffer.random());
+        Log.verbose(" insertSeedElement");
+        if (inserted == null) {
+            return;
+        }
+        if (tree.count > 0) {
+            // As the first child, last child or a sibling of a random element
+            int element = buffer.random().nextInt(tree.count);
+            int position = switch (buffer.random().nextInt(3)) {
+                case 0 -> tree.openEnd[element];
+                case 1 -> tree.closeStart[element];
+                default -> tree.start[element];
+            };
+            buffer.insertAt(position).put(inserted);
         } else {
-            builder.command("sh", "-c", "./" + command);
+            buffer.insertAt(buffer.length()).put(inserted);
         }
-        builder.directory(new File(workingDirectory));
-        builder.redirectErrorStream(true);
-        return builder;
     }
 
-    
-    private static boolean testInput(ProcessBuilder builder, String input) {
-        try {
-            Process process = builder.start();
-            try (OutputStreamWriter writer = new OutputStreamWriter(process.getOutputStream())) {
-                writer.write(input);
-            }
-            
-            int result = process.waitFor();
-            totalTestsRun++;
-            
-            if (result != 0) {
-                failedTests++;
-                System.out.println("\nFound crash with input:");
-                System.out.println(input);
-                System.out.println("Exit code: " + result);
-                
-                String output = readStreamIntoString(process.getInputStream());
-                if (!output.isEmpty()) {
-                    System.out.println("Program output: " + output);
-                    uniqueErrors.add(output.trim());
+    private static void addAttribute(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        Log.verbose(" addAttribute");
+        if (tree.count > 0) {
+            int element = buffer.random().nextInt(tree.count);
+            buffer.insertAt(tree.attributesEnd[element]).put(ATTRIBUTE_PREFIXES[buffer.random().nextInt(ATTRIBUTE_PREFIXES.length)]);
+            putValidAttributeValue(buffer);
+            buffer.put((byte) '"');
+        }
+    }
+
+    private static void removeAttributes(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        Log.verbose(" removeAttributes");
+        if (tree.count > 0) {
+            int element = buffer.random().nextInt(tree.count);
+            buffer.delete(tree.nameEnd[element], tree.attributesEnd[element] - tree.nameEnd[element]);
+        }
+    }
+
+    private static void wrapElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        int tag = buffer.random().nextInt(VALID_HTML5_TAGS.length);
+        Log.verbose(" wrapElement");
+        if (tree.count > 0) {
+            // The close tag goes in first, so the offset of the open tag still holds
+            int element = buffer.random().nextInt(tree.count);
+            buffer.insertAt(tree.end[element]).put(CLOSE_TAGS[tag]);
+            buffer.insertAt(tree.start[element]).put(OPEN_TAGS[tag]);
+        }
+    }
+
+    private static void unwrapElement(MutationBuffer buffer) {
+        TagTree tree = buffer.tree();
+        Log.verbose(" unwrapElement");
+        if (tree.count > 0) {
+            // Keeps the children of the element and drops its tags
+            int element = buffer.random().nextInt(tree.count);
+            buffer.delete(tree.closeStart[element], tree.end[element] - tree.closeStart[element]);
+            buffer.delete(tree.start[element], tree.openEnd[element] - tree.start[element]);
+        }
+    }
+
+    record Mutator(String name, Consumer<MutationBuffer> mutation) {
+        void apply(MutationBuffer buffer) {
+            mutation.accept(buffer);
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An input together with the offset right after its {@code <body>} tag, attributes included,
+     * where the body mutators insert their content, or -1 if it has none. {@code mutators} has a bit set for the index of
+     * every mutator that produced it, and {@code id} identifies a generated input (null for seeds
+     * and stored corpus entries).
+     */
+    record TestCase(byte[] data, int bodyOffset, long mutators, TestCaseId id) {
+        static TestCase of(String input) {
+            return of(utf8(input));
+        }
+
+        static TestCase of(byte[] data) {
+            return new TestCase(data, findBodyOffset(data), 0, null);
+        }
+
+        String name() {
+            return id == null ? "seed" : "test case " + id;
+        }
+
+        private static int findBodyOffset(byte[] data) {
+            outer:
+            for (int i = 0; i < data.length - BODY_TAG.length; i++) {
+                for (int j = 0; j < BODY_TAG.length; j++) {
+                    if (Character.toLowerCase(data[i + j]) != BODY_TAG[j]) {
+                        continue outer;
+                    }
+                }
+                // <body>, <body class="..."> and so on, but not <bodyx>
+                int next = i + BODY_TAG.length;
+                if (data[next] == '>' || data[next] == '/' || TagTree.isSpace(data[next])) {
+                    int end = TagTree.findTagEnd(data, next, data.length);
+                    return end < 0 ? -1 : end;
                 }
-                return true; // Error found
             }
-            return false; // No error
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            return true; // Consider exceptions as errors
+            return -1;
+        }
+
+        String text() {
+            return new String(data, StandardCharsets.UTF_8);
         }
     }
 
-    private static String readStreamIntoString(InputStream inputStream) {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        return reader.lines()
-                .map(line -> line + System.lineSeparator())
-                .collect(Collectors.joining());
+    /**
+     * Identifies a generated test case by the random stream that generated it and its index in that
+     * stream. The mutators of a test case draw from a generator derived from the campaign seed and
+     * the id alone, so the test case can be regenerated from its parent and the mutators applied.
+     */
+    record TestCaseId(long stream, long index) {
+        static TestCaseId parse(String text) {
+            int separator = text.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected STREAM:INDEX but got '%s'.".formatted(text));
+            }
+            return new TestCaseId(Long.parseLong(text.substring(0, separator)), Long.parseLong(text.substring(separator + 1)));
+        }
+
+        SplittableRandom random() {
+            return new SplittableRandom(mix64(mix64(campaignSeed ^ mix64(stream)) ^ index));
+        }
+
+        @Override
+        public String toString() {
+            return stream + ":" + index;
+        }
     }
 
-    private static void testWithBacktracking(String seed, Collection<Function<String, String>> mutators, String commandToFuzz) {
-        System.out.println("Generating and testing mutations with backtracking...");
-        getMutatedInputsWithBacktracking(seed, mutators, commandToFuzz);
-        System.out.println();
+    /**
+     * Random stream of one thread, numbered in the order the threads first need one. Its generator
+     * drives the choices that depend on the state of the campaign, such as which entry and which
+     * mutators to pick, and it hands out the ids of the test cases the thread generates.
+     */
+    static final class RandomStream {
+        private final long id;
+        private final SplittableRandom random;
+        private long nextIndex;
+
+        RandomStream(long id) {
+            this.id = id;
+            this.random = new SplittableRandom(mix64(campaignSeed + mix64(~id)));
+        }
+
+        long id() {
+            return id;
+        }
+
+        RandomGenerator random() {
+            return random;
+        }
+
+        long nextIndex() {
+            return nextIndex++;
+        }
     }
-    
-    private static void testWithoutBacktracking(ProcessBuilder builder, String seed, List<String> mutations) {
-        System.out.println("Testing original seed input...");
-        boolean test_has_error = testInput(builder, seed);
-        if(test_has_error)
-            return;
-        int totalMutations = mutations.size();
-        for (int i = 0; i < mutations.size(); i++) {
-            String input = mutations.get(i);
-            System.out.printf("\rTesting mutation %d/%d (Failed: %d)...", 
-                i + 1, totalMutations, failedTests);
-            test_has_error = testInput(builder, input);
-            
-            if (test_has_error) {
-                break;  // Stop testing mutations after first error in non-backtracking mode
+
+    /**
+     * Reusable buffer the mutators edit in place. Loading an input copies nothing: as long as the
+     * only edit is one insertion, the content is the input split around the inserted bytes, and
+     * the mutant is built with a single copy of prefix, inserted bytes and suffix. Any other edit
+     * first lays the content out as a gap buffer, whose free space sits at the current edit point,
+     * so further edits only move the bytes between one edit point and the next. The body offset is
+     * kept up to date through every edit, so it never has to be searched for again.
+     */
+    static final class MutationBuffer {
+        private byte[] data = new byte[4096];
+        // The content is data[0, gapStart) followed by data[gapEnd, data.length), unless source is
+        // set: then it is source[0, split), the inserted bytes in data[0, gapStart), source[split, end)
+        private byte[] source;
+        private int split;
+        private int gapStart;
+        private int gapEnd;
+        private int insertPosition;
+        private int bodyOffset = -1;
+        private long appliedMutators;
+        // What the test case being built is made of, so it can be regenerated; see TestCaseId
+        private TestCaseId id;
+        private TestCase parent;
+        private SplittableRandom random;
+        private byte[] mutatorSequence = new byte[8];
+        private int sequenceLength;
+        // Tag tree of the content, null once an edit has made it stale. The tree of the last
+        // unedited input is kept, so an entry picked again and again is only parsed once
+        private TagTree tree;
+        private boolean edited;
+        private byte[] parsedInput;
+        private TagTree parsedTree;
+
+        /** Starts a new test case from the input, with the next id of this thread's random stream. */
+        void load(TestCase input) {
+            RandomStream stream = randomStreams.get();
+            load(input, new TestCaseId(stream.id(), stream.nextIndex()));
+        }
+
+        void load(TestCase input, TestCaseId id) {
+            this.id = id;
+            this.parent = input;
+            random = id.random();
+            sequenceLength = 0;
+            appliedMutators = 0;
+            byte[] bytes = input.data();
+            source = bytes;
+            split = bytes.length;
+            gapStart = 0;
+            gapEnd = data.length;
+            insertPosition = split;
+            bodyOffset = input.bodyOffset();
+            edited = false;
+            tree = bytes == parsedInput ? parsedTree : null;
+        }
+
+        int length() {
+            return source != null ? source.length + gapStart : data.length - (gapEnd - gapStart);
+        }
+
+        /** The random numbers the mutators draw from, determined by the test case id alone. */
+        RandomGenerator random() {
+            return random;
+        }
+
+        void recordMutator(int index) {
+            appliedMutators |= 1L << index;
+            if (sequenceLength == mutatorSequence.length) {
+                mutatorSequence = Arrays.copyOf(mutatorSequence, sequenceLength * 2);
+            }
+            mutatorSequence[sequenceLength++] = (byte) index;
+        }
+
+        boolean hasBody() {
+            return bodyOffset >= 0;
+        }
+
+        /** The elements of the current content, parsed again only after an edit. */
+        TagTree tree() {
+            if (tree == null) {
+                if (!edited) {
+                    tree = TagTree.parse(source, source.length);
+                } else {
+                    // Closing the gap at the end leaves the content contiguous in data[0, length)
+                    layOut();
+                    moveGap(length());
+                    tree = TagTree.parse(data, gapStart);
+                }
+                if (!edited) {
+                    parsedInput = parent.data();
+                    parsedTree = tree;
+                }
+            }
+            return tree;
+        }
+
+        /** Copy of the content in [from, to), for a mutator that moves or repeats part of it. */
+        byte[] copy(int from, int to) {
+            if (!edited) {
+                return Arrays.copyOfRange(source, from, to);
             }
+            layOut();
+            moveGap(to);
+            return Arrays.copyOfRange(data, from, to);
+        }
+
+        MutationBuffer insertAtBody() {
+            return insertAt(bodyOffset);
+        }
+
+        /** Moves the insertion point; the following put calls insert their bytes there in order. */
+        MutationBuffer insertAt(int position) {
+            if (source != null && !edited) {
+                split = position;
+            } else {
+                layOut();
+                moveGap(position);
+            }
+            insertPosition = position;
+            edited = true;
+            tree = null;
+            return this;
+        }
+
+        MutationBuffer put(byte[] bytes) {
+            return put(bytes, 0, bytes.length);
+        }
+
+        MutationBuffer put(byte[] bytes, int offset, int length) {
+            ensureGap(length);
+            System.arraycopy(bytes, offset, data, gapStart, length);
+            gapStart += length;
+            shiftBodyOffset(length);
+            return this;
+        }
+
+        MutationBuffer put(byte value) {
+            ensureGap(1);
+            data[gapStart++] = value;
+            shiftBodyOffset(1);
+            return this;
+        }
+
+        void delete(int position, int length) {
+            layOut();
+            moveGap(position);
+            gapEnd += length;
+            edited = true;
+            tree = null;
+            if (bodyOffset >= position + length) {
+                bodyOffset -= length;
+            } else if (bodyOffset > position) {
+                bodyOffset = position;
+            }
+        }
+
+        void flipBit(int position, int bit) {
+            layOut();
+            int index = position < gapStart ? position : position + (gapEnd - gapStart);
+            data[index] ^= (byte) (1 << bit);
+            edited = true;
+            tree = null;
+        }
+
+        TestCase toTestCase() {
+            byte[] bytes = new byte[length()];
+            if (source != null) {
+                System.arraycopy(source, 0, bytes, 0, split);
+                System.arraycopy(data, 0, bytes, split, gapStart);
+                System.arraycopy(source, split, bytes, split + gapStart, source.length - split);
+            } else {
+                System.arraycopy(data, 0, bytes, 0, gapStart);
+                System.arraycopy(data, gapEnd, bytes, gapStart, data.length - gapEnd);
+            }
+            if (Log.testCaseLogFile != null) {
+                // Seeds and stored corpus entries are referred to by hash, generated parents by id
+                String parentReference = parent.id() != null ? parent.id().toString() : "corpus/" + CampaignStore.fileName(hash64(parent.data()));
+                StringJoiner sequence = new StringJoiner(",").setEmptyValue("-");
+                for (int i = 0; i < sequenceLength; i++) {
+                    sequence.add(String.valueOf(mutatorSequence[i]));
+                }
+                Log.testCase(id + " " + parentReference + " " + sequence + " " + CampaignStore.fileName(hash64(bytes)));
+            }
+            return new TestCase(bytes, bodyOffset, appliedMutators, id);
+        }
+
+        private void shiftBodyOffset(int length) {
+            // Content inserted right at the body offset goes after <body>, so only earlier inserts move it
+            if (insertPosition < bodyOffset) {
+                bodyOffset += length;
+            }
+            insertPosition += length;
+        }
+
+        /** Copies the input around the inserted bytes, leaving the gap right after them. */
+        private void layOut() {
+            if (source == null) {
+                return;
+            }
+            int inserted = gapStart;
+            int tail = source.length - split;
+            if (data.length < (source.length + inserted) * 2) {
+                byte[] grown = new byte[(source.length + inserted) * 2];
+                System.arraycopy(data, 0, grown, 0, inserted);
+                data = grown;
+            }
+            System.arraycopy(data, 0, data, split, inserted);
+            System.arraycopy(source, 0, data, 0, split);
+            System.arraycopy(source, split, data, data.length - tail, tail);
+            gapStart = split + inserted;
+            gapEnd = data.length - tail;
+            source = null;
+        }
+
+        private void moveGap(int position) {
+            if (position < gapStart) {
+                int count = gapStart - position;
+                System.arraycopy(data, position, data, gapEnd - count, count);
+                gapStart -= count;
+                gapEnd -= count;
+            } else if (position > gapStart) {
+                int count = position - gapStart;
+                System.arraycopy(data, gapEnd, data, gapStart, count);
+                gapStart += count;
+                gapEnd += count;
+            }
+        }
+
+        private void ensureGap(int needed) {
+            if (gapEnd - gapStart >= needed) {
+                return;
+            }
+            int tail = data.length - gapEnd;
+            byte[] grown = new byte[Math.max(data.length * 2, length() + needed * 2)];
+            System.arraycopy(data, 0, grown, 0, gapStart);
+            System.arraycopy(data, gapEnd, grown, grown.length - tail, tail);
+            gapEnd = grown.length - tail;
+            data = grown;
+        }
+    }
+
+    /**
+     * Elements of an HTML document, parsed leniently into flat arrays: element i spans
+     * [start, end), its open tag ends at openEnd and its close tag starts at closeStart, which is
+     * end for void and unclosed elements. The tag name ends at nameEnd and the attributes at
+     * attributesEnd, the offset of the "/>" or ">" that closes the open tag. Doctypes and comments
+     * are skipped, and a close tag closes every element opened after the matching one, the way a
+     * browser recovers from misnested tags.
+     */
+    static final class TagTree {
+        private static final Set<String> VOID_ELEMENTS = Set.of(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr");
+
+        int count;
+        int[] start = new int[16];
+        int[] nameEnd = new int[16];
+        int[] attributesEnd = new int[16];
+        int[] openEnd = new int[16];
+        int[] closeStart = new int[16];
+        int[] end = new int[16];
+
+        static TagTree parse(byte[] data, int length) {
+            TagTree tree = new TagTree();
+            int[] open = new int[16];
+            String[] openNames = new String[16];
+            int depth = 0;
+            int i = 0;
+            while (i < length - 1) {
+                if (data[i] != '<') {
+                    i++;
+                    continue;
+                }
+                byte next = data[i + 1];
+                if (next == '!' || next == '?') {
+                    boolean comment = startsWith(data, i, length, "<!--");
+                    int close = comment ? indexOf(data, i + 4, length, "-->") : indexOf(data, i, length, ">");
+                    if (close < 0) {
+                        // Unterminated, so the rest is all comment
+                        break;
+                    }
+                    i = close + (comment ? 3 : 1);
+                } else if (next == '/') {
+                    int nameEnd = readName(data, i + 2, length);
+                    int tagEnd = findTagEnd(data, nameEnd, length);
+                    if (tagEnd < 0) {
+                        break;
+                    }
+                    String name = new String(data, i + 2, nameEnd - (i + 2), StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+                    int match = depth - 1;
+                    while (match >= 0 && !openNames[match].equals(name)) {
+                        match--;
+                    }
+                    if (match >= 0) {
+                        // Elements left open inside the matching one end where its close tag starts
+                        while (depth > match + 1) {
+                            int element = open[--depth];
+                            tree.closeStart[element] = i;
+                            tree.end[element] = i;
+                        }
+                        int element = open[--depth];
+                        tree.closeStart[element] = i;
+                        tree.end[element] = tagEnd;
+                    }
+                    i = tagEnd;
+                } else if (isLetter(next)) {
+                    int nameEnd = readName(data, i + 1, length);
+                    int tagEnd = findTagEnd(data, nameEnd, length);
+                    if (tagEnd < 0) {
+                        break;
+                    }
+                    String name = new String(data, i + 1, nameEnd - (i + 1), StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+                    boolean selfClosing = tagEnd - 2 >= nameEnd && data[tagEnd - 2] == '/';
+                    int element = tree.add(i, nameEnd, selfClosing ? tagEnd - 2 : tagEnd - 1, tagEnd);
+                    if (selfClosing || VOID_ELEMENTS.contains(name)) {
+                        tree.closeStart[element] = tagEnd;
+                        tree.end[element] = tagEnd;
+                    } else {
+                        if (depth == open.length) {
+                            open = Arrays.copyOf(open, depth * 2);
+                            openNames = Arrays.copyOf(openNames, depth * 2);
+                        }
+                        open[depth] = element;
+                        openNames[depth++] = name;
+                    }
+                    i = tagEnd;
+                } else {
+                    i++;
+                }
+            }
+            while (depth > 0) {
+                int element = open[--depth];
+                tree.closeStart[element] = length;
+                tree.end[element] = length;
+            }
+            return tree;
+        }
+
+        /** Offset right after the ">" that ends the tag, skipping quoted attribute values, or -1. */
+        static int findTagEnd(byte[] data, int from, int length) {
+            byte quote = 0;
+            for (int i = from; i < length; i++) {
+                byte b = data[i];
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+        }
+
+        private int add(int start, int nameEnd, int attributesEnd, int openEnd) {
+            if (count == this.start.length) {
+                int capacity = count * 2;
+                this.start = Arrays.copyOf(this.start, capacity);
+                this.nameEnd = Arrays.copyOf(this.nameEnd, capacity);
+                this.attributesEnd = Arrays.copyOf(this.attributesEnd, capacity);
+                this.openEnd = Arrays.copyOf(this.openEnd, capacity);
+                closeStart = Arrays.copyOf(closeStart, capacity);
+                end = Arrays.copyOf(end, capacity);
+            }
+            this.start[count] = start;
+            this.nameEnd[count] = nameEnd;
+            this.attributesEnd[count] = attributesEnd;
+            this.openEnd[count] = openEnd;
+            return count++;
+        }
+
+        private static int readName(byte[] data, int from, int length) {
+            int i = from;
+            while (i < length && (isLetter(data[i]) || (data[i] >= '0' && data[i] <= '9') || data[i] == '-' || data[i] == ':')) {
+                i++;
+            }
+            return i;
+        }
+
+        private static boolean isLetter(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+
+        static boolean startsWith(byte[] data, int from, int length, String prefix) {
+            if (from + prefix.length() > length) {
+                return false;
+            }
+            for (int j = 0; j < prefix.length(); j++) {
+                if (data[from + j] != prefix.charAt(j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static int indexOf(byte[] data, int from, int length, String text) {
+            for (int i = from; i <= length - text.length(); i++) {
+                if (startsWith(data, i, length, text)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The inputs the campaign starts from: the built-in ones, or the files of the --seeds
+     * directory. Only the file names are listed up front; a file is read the first time it is used
+     * and then held through a soft reference, so a large corpus starts at once and the heap only
+     * keeps the seeds in use. The mutators edit heap arrays, so mapping the files would only add a
+     * mapping on top of the copy. Seeds are numbered in file name order,
+     * which replay relies on, so it needs the same directory.
+     */
+    static final class Seeds {
+        private final Path[] files;
+        private final Seed[] builtIn;
+        private final AtomicReferenceArray<SoftReference<Seed>> cached;
+
+        /** A seed with its tag tree, parsed the first time a mutator grafts one of its elements. */
+        static final class Seed {
+            private final TestCase input;
+            private volatile TagTree tree;
+
+            Seed(TestCase input) {
+                this.input = input;
+            }
+
+            TagTree tree() {
+                TagTree parsed = tree;
+                if (parsed == null) {
+                    parsed = TagTree.parse(input.data(), input.data().length);
+                    tree = parsed;
+                }
+                return parsed;
+            }
+        }
+
+        private Seeds(Path[] files, Seed[] builtIn) {
+            this.files = files;
+            this.builtIn = builtIn;
+            this.cached = files != null ? new AtomicReferenceArray<>(files.length) : null;
+        }
+
+        static Seeds builtIn() {
+            return new Seeds(null, SEED_INPUTS.stream().map(input -> new Seed(TestCase.of(input))).toArray(Seed[]::new));
+        }
+
+        static Seeds directory(Path directory) {
+            // Empty files are left out, as there is nothing to mutate or splice from them
+            try (Stream<Path> paths = Files.find(directory, Integer.MAX_VALUE, (path, attributes) -> attributes.isRegularFile() && attributes.size() > 0)) {
+                Path[] files = paths.sorted().toArray(Path[]::new);
+                if (files.length == 0) {
+                    throw new IllegalArgumentException("No non-empty seed files in '%s'.".formatted(directory));
+                }
+                return new Seeds(files, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not list the seeds in '%s'.".formatted(directory), e);
+            }
+        }
+
+        boolean isBuiltIn() {
+            return builtIn != null;
+        }
+
+        int size() {
+            return isBuiltIn() ? builtIn.length : files.length;
+        }
+
+        TestCase get(int index) {
+            return seed(index).input;
+        }
+
+        /** Copy of a random element of a random seed, or null if that seed has none. */
+        byte[] randomElement(RandomGenerator random) {
+            Seed seed = seed(random.nextInt(size()));
+            TagTree tree = seed.tree();
+            if (tree.count == 0) {
+                return null;
+            }
+            int element = random.nextInt(tree.count);
+            return Arrays.copyOfRange(seed.input.data(), tree.start[element], tree.end[element]);
+        }
+
+        private Seed seed(int index) {
+            if (isBuiltIn()) {
+                return builtIn[index];
+            }
+            SoftReference<Seed> reference = cached.get(index);
+            Seed seed = reference != null ? reference.get() : null;
+            if (seed == null) {
+                seed = new Seed(TestCase.of(read(files[index])));
+                cached.set(index, new SoftReference<>(seed));
+                if (store != null) {
+                    // Replay walks back to the stored input a test case descends from
+                    store.saveSeed(seed.input);
+                }
+            }
+            return seed;
+        }
+
+        private static byte[] read(Path file) {
+            try {
+                return Files.readAllBytes(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read seed '%s'.".formatted(file), e);
+            }
+        }
+    }
+
+    private static ProcessBuilder getProcessBuilderForCommand(String command, String workingDirectory) {
+        ProcessBuilder builder = new ProcessBuilder();
+        if (useShell) {
+            String commandLine = String.join(" ", command, String.join(" ", targetArgs)).trim();
+            boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+            if (isWindows) {
+                builder.command("cmd.exe", "/c", commandLine);
+            } else {
+                builder.command("sh", "-c", "./" + commandLine);
+            }
+        } else {
+            // Exec the binary itself, which saves starting a shell for every test and
+            // reports the exit code of the target rather than the one of the shell
+            List<String> argv = new ArrayList<>();
+            argv.add(new File(workingDirectory, command).getAbsolutePath());
+            argv.addAll(targetArgs);
+            builder.command(argv);
+        }
+        builder.environment().putAll(targetEnv);
+        builder.directory(new File(workingDirectory));
+        builder.redirectErrorStream(true);
+        return builder;
+    }
+
+    
+    private static boolean testInput(Target target, Corpus.Entry parent, TestCase input) {
+        try {
+            ExecutionResult result = target.run(input.data());
+            totalTestsRun.incrementAndGet();
+            
+            if (result.timedOut()) {
+                reportHang(input);
+                metrics.recordYield(input.mutators(), true, false);
+                scheduler.reward(input.mutators(), false);
+                return true; // Hangs count as errors too
+            }
+            if (result.exitCode() != 0) {
+                boolean newCrash = reportCrash(input, result);
+                boolean productive = corpus.observe(parent, input, result, newCrash);
+                metrics.recordYield(input.mutators(), true, newCrash);
+                scheduler.reward(input.mutators(), productive);
+                return true; // Error found
+            }
+            boolean productive = corpus.observe(parent, input, result, false);
+            metrics.recordYield(input.mutators(), false, false);
+            scheduler.reward(input.mutators(), productive);
+            if (complexity != null) {
+                complexity.observe(input, result);
+            }
+            return false; // No error
+        } catch (IOException | InterruptedException e) {
+            Log.error("Exception occurred with input written to " + Log.inputLogFile, e);
+            Log.input("Input causing an exception:", input.data());
+            return true; // Consider exceptions as errors
+        }
+    }
+
+    /** How a run went; peakRssKb is 0 where it is not measured, see Complexity. */
+    record ExecutionResult(int exitCode, String output, boolean timedOut, long durationNanos, long outputShape, long peakRssKb) {}
+
+    /** Writes an input into the target, all at once or generated piece by piece. */
+    @FunctionalInterface
+    interface InputSource {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Something to fuzz: runs one input and reports how it went. Everything else, from the
+     * mutators to the corpus and the crash buckets, is the same for every kind of target.
+     */
+    interface Target extends AutoCloseable {
+        ExecutionResult run(byte[] input) throws IOException, InterruptedException;
+
+        @Override
+        void close();
+
+        default void printSummary() {
+        }
+    }
+
+    private static Target createTarget(String harnessJar, String command, String workingDirectory, int prespawn) {
+        if (harnessJar != null) {
+            return new JvmTarget(Paths.get(harnessJar), command);
+        }
+        if (stdinFile) {
+            return new ProcessTarget(new InputFiles(() -> getProcessBuilderForCommand(command, workingDirectory)));
+        }
+        return new ProcessTarget(new ProcessPool(getProcessBuilderForCommand(command, workingDirectory), prespawn));
+    }
+
+    /**
+     * Hunts for inputs that make the target slow or memory-hungry rather than crash it. The cost
+     * of a passing run is its time and, for processes on Linux, its peak RSS, beyond what an
+     * empty input costs (process startup, mostly) and per input byte, so a mutant does not look
+     * costly just for being longer. With --complexity, backtracking
+     * chains only build on a mutant that costs more per byte than its base. A run over --max-time
+     * or --max-rss is a performance bug, reported when it is the worst of its kind so far with a
+     * growth curve: the cost of prefixes of the input, and how fast the cost grows with the size.
+     * Curves are measured on a thread of their own, so the worker that found the input goes on
+     * fuzzing. A peak RSS of 0 means the target exited before it was sampled, and such a run has
+     * no memory cost rather than none at all.
+     */
+    static final class Complexity {
+        // A mutant must cost this much more per byte than its base to replace it, to ride out timing noise
+        private static final double MARGIN = 1.1;
+        private static final int CURVE_POINTS = 4;
+        private static final int CURVE_RUNS = 5;
+        // Inputs shorter than this count as this long, so the noise in the cost of a tiny input is not taken for a find
+        private static final int MIN_COST_BYTES = 64;
+
+        enum Kind { TIME, MEMORY }
+
+        record Costly(TestCase input, ExecutionResult result) {}
+
+        private final Target target;
+        // Cost of an empty input, which every run pays
+        private final long baselineNanos;
+        private final long baselineRssKb;
+        private final long maxTimeNanos;
+        private final long maxRssKb;
+        private final Map<Kind, Costly> costliestPerByte = new EnumMap<>(Kind.class);
+        private final Map<Kind, Long> worstReported = new EnumMap<>(Kind.class);
+        private final AtomicInteger reports = new AtomicInteger();
+        private final ExecutorService curves = Executors.newSingleThreadExecutor(daemonThreads("complexity"));
+        private final List<Future<?>> pendingCurves = new ArrayList<>();
+        // Growth curves of the costliest inputs, measured by finish() while the target is still open
+        private String slowestCurve;
+        private String hungriestCurve;
+
+        /** Runs growth curves on the target itself, as cached results would repeat one measurement. */
+        Complexity(Target target, long maxTimeMillis, long maxRssMegabytes) {
+            this.target = target;
+            this.maxTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxTimeMillis);
+            this.maxRssKb = maxRssMegabytes * 1024;
+            long[] baseline = measure(new byte[0]);
+            this.baselineNanos = baseline == null ? 0 : baseline[0];
+            this.baselineRssKb = baseline == null ? 0 : baseline[1];
+            if (samplePeakRss && baselineRssKb == 0) {
+                Log.info("The peak RSS of an empty input could not be sampled; memory is not part of the cost");
+            }
+        }
+
+        boolean costsMore(TestCase input, ExecutionResult result, TestCase base, ExecutionResult baseResult) {
+            return baseResult == null
+                || timePerByte(input, result) > MARGIN * timePerByte(base, baseResult)
+                || (memoryMeasured(result.peakRssKb()) && memoryMeasured(baseResult.peakRssKb())
+                    && memoryPerByte(input, result) > MARGIN * memoryPerByte(base, baseResult));
+        }
+
+        private boolean memoryMeasured(long peakRssKb) {
+            return peakRssKb > 0 && baselineRssKb > 0;
+        }
+
+        private double timePerByte(TestCase input, ExecutionResult result) {
+            return Math.max(0, result.durationNanos() - baselineNanos) / (double) Math.max(MIN_COST_BYTES, input.data().length);
+        }
+
+        private double memoryPerByte(TestCase input, ExecutionResult result) {
+            if (!memoryMeasured(result.peakRssKb())) {
+                return 0;
+            }
+            return Math.max(0, result.peakRssKb() - baselineRssKb) / (double) Math.max(MIN_COST_BYTES, input.data().length);
+        }
+
+        /**
+         * Fastest time and highest peak RSS of a few runs of the input, or null if the target could
+         * not run it. The peak RSS is 0 if no run was sampled.
+         */
+        private long[] measure(byte[] input) {
+            long nanos = Long.MAX_VALUE;
+            long rssKb = 0;
+            try {
+                for (int run = 0; run < CURVE_RUNS; run++) {
+                    ExecutionResult result = target.run(input);
+                    nanos = Math.min(nanos, result.durationNanos());
+                    rssKb = Math.max(rssKb, result.peakRssKb());
+                }
+            } catch (IOException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return new long[] {nanos, rssKb};
+        }
+
+        int reports() {
+            return reports.get();
+        }
+
+        /** Records the cost of a passing run and reports it if it is over a threshold. */
+        void observe(TestCase input, ExecutionResult result) {
+            Costly costly = new Costly(input, result);
+            synchronized (this) {
+                costliestPerByte.merge(Kind.TIME, costly, (old, candidate) ->
+                    timePerByte(candidate.input(), candidate.result()) > timePerByte(old.input(), old.result()) ? candidate : old);
+                costliestPerByte.merge(Kind.MEMORY, costly, (old, candidate) ->
+                    memoryPerByte(candidate.input(), candidate.result()) > memoryPerByte(old.input(), old.result()) ? candidate : old);
+            }
+            if (maxTimeNanos > 0 && result.durationNanos() > maxTimeNanos && isWorst(Kind.TIME, result.durationNanos())) {
+                report(Kind.TIME, costly, "%.1f ms, over the limit of %d ms".formatted(
+                    result.durationNanos() / 1e6, TimeUnit.NANOSECONDS.toMillis(maxTimeNanos)));
+            }
+            if (maxRssKb > 0 && result.peakRssKb() > maxRssKb && isWorst(Kind.MEMORY, result.peakRssKb())) {
+                report(Kind.MEMORY, costly, "peak RSS %d KiB, over the limit of %d MiB".formatted(result.peakRssKb(), maxRssKb / 1024));
+            }
+        }
+
+        /** Only a run worse than every one reported before is reported, or every mutant of a slow input would be. */
+        private synchronized boolean isWorst(Kind kind, long cost) {
+            Long reported = worstReported.get(kind);
+            if (reported != null && cost <= reported * MARGIN) {
+                return false;
+            }
+            worstReported.put(kind, cost);
+            return true;
+        }
+
+        private void report(Kind kind, Costly costly, String description) {
+            reports.incrementAndGet();
+            budget.progress();
+            byte[] input = costly.input().data();
+            String name = kind.name().toLowerCase(Locale.ROOT);
+            if (store != null) {
+                store.savePerformanceBug(input, description);
+            }
+            Log.info("Found %s performance bug in %s (%d bytes): %s, written to %s".formatted(
+                name, costly.input().name(), input.length, description, Log.inputLogFile));
+            Log.input("Performance bug (" + name + ") in " + costly.input().name() + ":", input);
+            Future<?> curve = curves.submit(() -> {
+                String growth = growthCurve(input);
+                if (store != null) {
+                    store.savePerformanceBug(input, description + "\n" + growth);
+                }
+                Log.info("For the %s performance bug in %s: %s".formatted(name, costly.input().name(), growth));
+            });
+            synchronized (pendingCurves) {
+                pendingCurves.add(curve);
+            }
+        }
+
+        /**
+         * Runs prefixes of the input from an eighth of it to all of it, a few times each, and fits
+         * the exponent of the growth of the time and memory beyond the cost of an empty input on a
+         * log-log scale: about 1 for linear cost, 2 for quadratic.
+         */
+        String growthCurve(byte[] input) {
+            long[] sizes = new long[CURVE_POINTS];
+            long[] excessNanos = new long[CURVE_POINTS];
+            long[] excessRssKb = new long[CURVE_POINTS];
+            StringBuilder curve = new StringBuilder("Growth curve:");
+            for (int point = 0; point < CURVE_POINTS; point++) {
+                byte[] prefix = Arrays.copyOf(input, Math.max(1, input.length >> (CURVE_POINTS - 1 - point)));
+                long[] cost = measure(prefix);
+                if (cost == null) {
+                    return curve.append(" could not run the target").toString();
+                }
+                sizes[point] = prefix.length;
+                excessNanos[point] = cost[0] - baselineNanos;
+                // Unsampled points are left out of the fit, which only uses positive costs
+                excessRssKb[point] = memoryMeasured(cost[1]) ? cost[1] - baselineRssKb : 0;
+                curve.append("%n  %8d bytes %10.3f ms %8s KiB".formatted(sizes[point], cost[0] / 1e6, cost[1] > 0 ? cost[1] : "-"));
+            }
+            curve.append("%n  beyond an empty input: time %s, memory %s".formatted(
+                growth(slope(sizes, excessNanos)), growth(slope(sizes, excessRssKb))));
+            return curve.toString();
+        }
+
+        static String growth(double exponent) {
+            return Double.isNaN(exponent) ? "not measurable" : "~ n^%.2f".formatted(exponent);
+        }
+
+        /** Least-squares slope of log(cost) over log(size), NaN if there are not two usable points. */
+        static double slope(long[] sizes, long[] costs) {
+            double n = 0, sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                if (sizes[i] > 0 && costs[i] > 0) {
+                    double x = Math.log(sizes[i]);
+                    double y = Math.log(costs[i]);
+                    n++;
+                    sumX += x;
+                    sumY += y;
+                    sumXY += x * y;
+                    sumXX += x * x;
+                }
+            }
+            double denominator = n * sumXX - sumX * sumX;
+            return n < 2 || denominator == 0 ? Double.NaN : (n * sumXY - sumX * sumY) / denominator;
+        }
+
+        /** Waits for the curves of the reported bugs and measures those of the costliest inputs for the summary. */
+        void finish() {
+            List<Future<?>> pending;
+            synchronized (pendingCurves) {
+                pending = List.copyOf(pendingCurves);
+            }
+            awaitAll(pending);
+            curves.shutdown();
+            Costly slowest = costliestPerByte.get(Kind.TIME);
+            Costly hungriest = costliestPerByte.get(Kind.MEMORY);
+            if (slowest != null) {
+                slowestCurve = growthCurve(slowest.input().data());
+            }
+            if (hungriest != null && hungriest != slowest && hungriest.result().peakRssKb() > 0) {
+                hungriestCurve = growthCurve(hungriest.input().data());
+            }
+        }
+
+        void printSummary() {
+            System.out.println("\nComplexity:");
+            System.out.println("Performance bugs reported: " + reports.get());
+            Costly slowest = costliestPerByte.get(Kind.TIME);
+            if (slowest != null) {
+                System.out.printf("Most time per byte: %.1f ns/byte, %.3f ms for %d bytes: %s%n",
+                    timePerByte(slowest.input(), slowest.result()), slowest.result().durationNanos() / 1e6,
+                    slowest.input().data().length, abbreviate(slowest.input().text(), 80));
+                System.out.println(slowestCurve);
+            }
+            Costly hungriest = costliestPerByte.get(Kind.MEMORY);
+            if (hungriest != null && hungriest.result().peakRssKb() > 0) {
+                System.out.printf("Most memory per byte: %.3f KiB/byte, peak RSS %d KiB for %d bytes: %s%n",
+                    memoryPerByte(hungriest.input(), hungriest.result()), hungriest.result().peakRssKb(),
+                    hungriest.input().data().length, abbreviate(hungriest.input().text(), 80));
+                if (hungriestCurve != null) {
+                    System.out.println(hungriestCurve);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the results of recent inputs, so an input the mutators generate again is not run
+     * again. Results are keyed by the 64-bit content hash and the length of the input, and kept in
+     * segments picked by the hash, each with its own lock, so workers storing results rarely wait
+     * on each other. A segment evicts least recently used first, once it holds its share of the
+     * entries or of OUTPUT_CHARS, which bounds what crash output costs. A Bloom filter over the
+     * hashes answers most misses without touching a segment; it is rebuilt from the cached keys
+     * before it fills up. Assumes the target is deterministic, which crash buckets and
+     * minimization assume as well.
+     */
+    static final class CachingTarget implements Target {
+        private static final int BLOOM_BITS = 1 << 23;
+        // Rebuilding at one insertion per 8 bits keeps false positives of 3 hashes around 3%
+        private static final int BLOOM_INSERTIONS = BLOOM_BITS / 8;
+        // Leaves a rebuilt filter room for at least as many new inputs as it starts with
+        static final int MAX_CAPACITY = BLOOM_INSERTIONS / 2;
+        private static final int SEGMENTS = 16;
+        private static final long OUTPUT_CHARS = 64L << 20;
+
+        private record Key(long hash, int length) {}
+
+        private final Target target;
+        private final Segment[] segments = new Segment[SEGMENTS];
+        private final AtomicLongArray bloom = new AtomicLongArray(BLOOM_BITS / Long.SIZE);
+        private final AtomicInteger bloomInsertions = new AtomicInteger();
+        private final LongAdder lookups = new LongAdder();
+        private final LongAdder filtered = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+
+        CachingTarget(Target target, int capacity) {
+            this.target = target;
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS, OUTPUT_CHARS / SEGMENTS);
+            }
+        }
+
+        @Override
+        public ExecutionResult run(byte[] input) throws IOException, InterruptedException {
+            long hash = hash64(input);
+            Key key = new Key(hash, input.length);
+            lookups.increment();
+            // The Bloom filter uses the low bits of the hash, so take the segment from the high ones
+            Segment segment = segments[(int) (hash >>> 60)];
+            if (mightContain(hash)) {
+                ExecutionResult cached = segment.get(key);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            } else {
+                filtered.increment();
+            }
+            ExecutionResult result = target.run(input);
+            segment.put(key, result);
+            addToBloom(hash);
+            return result;
+        }
+
+        private boolean mightContain(long hash) {
+            for (int i = 0; i < 3; i++) {
+                int bit = bloomBit(hash, i);
+                if ((bloom.get(bit >>> 6) & 1L << bit) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addToBloom(long hash) {
+            setBloomBits(hash);
+            if (bloomInsertions.incrementAndGet() == BLOOM_INSERTIONS) {
+                rebuildBloom();
+            }
+        }
+
+        private void setBloomBits(long hash) {
+            for (int i = 0; i < 3; i++) {
+                int bit = bloomBit(hash, i);
+                bloom.getAndUpdate(bit >>> 6, word -> word | 1L << bit);
+            }
+        }
+
+        /**
+         * Clears the filter and adds back what is still cached. Inputs added meanwhile may be
+         * cleared as well, which only means they are run again.
+         */
+        private void rebuildBloom() {
+            List<Key> keys = new ArrayList<>();
+            for (Segment segment : segments) {
+                segment.addKeysTo(keys);
+            }
+            for (int i = 0; i < bloom.length(); i++) {
+                bloom.set(i, 0);
+            }
+            // Not through addToBloom, which would count them and could start another rebuild
+            for (Key key : keys) {
+                setBloomBits(key.hash());
+            }
+            bloomInsertions.set(keys.size());
+        }
+
+        // Double hashing: the i-th bit index is h1 + i * h2, both taken from the 64-bit hash
+        private static int bloomBit(long hash, int i) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            return (h1 + i * h2) & (BLOOM_BITS - 1);
+        }
+
+        /** A least recently used map bounded by its number of entries and the characters of their output. */
+        private static final class Segment {
+            private final LinkedHashMap<Key, ExecutionResult> results = new LinkedHashMap<>(16, 0.75f, true);
+            private final int capacity;
+            private final long maxOutputChars;
+            private long outputChars;
+
+            Segment(int capacity, long maxOutputChars) {
+                this.capacity = capacity;
+                this.maxOutputChars = maxOutputChars;
+            }
+
+            synchronized ExecutionResult get(Key key) {
+                return results.get(key);
+            }
+
+            synchronized void put(Key key, ExecutionResult result) {
+                ExecutionResult previous = results.put(key, result);
+                if (previous != null) {
+                    outputChars -= previous.output().length();
+                }
+                outputChars += result.output().length();
+                Iterator<ExecutionResult> eldest = results.values().iterator();
+                while (results.size() > capacity || outputChars > maxOutputChars) {
+                    outputChars -= eldest.next().output().length();
+                    eldest.remove();
+                }
+            }
+
+            synchronized void addKeysTo(List<Key> keys) {
+                keys.addAll(results.keySet());
+            }
+        }
+
+        @Override
+        public void close() {
+            target.close();
+        }
+
+        @Override
+        public void printSummary() {
+            long total = lookups.sum();
+            if (total > 0) {
+                System.out.println("\nResult Cache:");
+                System.out.printf("Lookups: %d, hits: %d (%.1f%%), executions saved: %d%n",
+                    total, hits.sum(), 100.0 * hits.sum() / total, hits.sum());
+                System.out.printf("Misses answered by the Bloom filter: %d (%.1f%% of misses)%n",
+                    filtered.sum(), 100.0 * filtered.sum() / Math.max(1, total - hits.sum()));
+            }
+            target.printSummary();
+        }
+    }
+
+    /** Runs a command per input, with the input on stdin and its exit code and output as the result. */
+    static final class ProcessTarget implements Target {
+        private static final long RSS_SAMPLE_MILLIS = 1;
+        // /proc/<pid>/status is well under this size; one buffer per worker is read every sample
+        private static final ThreadLocal<byte[]> statusBuffers = ThreadLocal.withInitial(() -> new byte[8192]);
+
+        // Exactly one of them is set: processes get their input through a pipe or from a file
+        private final ProcessPool pool;
+        private final InputFiles inputFiles;
+        // Smallest peak RSS seen of a target process blocked, as when waiting for its input. A
+        // sample below it is of a process still loading the target, as VmHWM starts over on exec
+        private final LongAccumulator loadedRssKb = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+        ProcessTarget(ProcessPool pool) {
+            this.pool = pool;
+            this.inputFiles = null;
+        }
+
+        ProcessTarget(InputFiles inputFiles) {
+            this.pool = null;
+            this.inputFiles = inputFiles;
+        }
+
+        @Override
+        public ExecutionResult run(byte[] input) throws IOException, InterruptedException {
+            return run(out -> out.write(input));
+        }
+
+        /** Runs an input written straight into the target's stdin, or its input file, as it is generated. */
+        ExecutionResult run(InputSource input) throws IOException, InterruptedException {
+            Process process = pool != null ? pool.take() : inputFiles.start(input);
+            if (samplePeakRss && pool != null && loadedRssKb.get() == Long.MAX_VALUE) {
+                awaitLoaded(process);
+            }
+            long start = System.nanoTime();
+            // Read the output while the target runs, otherwise a target filling the pipe never exits
+            OutputBuffer output = OutputBuffer.acquire();
+            Future<?> drained = outputDrainers.submit(() -> {
+                output.drain(process.getInputStream());
+                return null;
+            });
+            // The watchdog also covers writing the input, which blocks if the target stops reading
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> kill = watchdog.schedule(() -> {
+                timedOut.set(true);
+                killProcessTree(process);
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            int exitCode;
+            long peakRssKb = 0;
+            try {
+                if (pool != null) {
+                    try (OutputStream stdin = process.getOutputStream()) {
+                        input.writeTo(stdin);
+                    } catch (IOException e) {
+                        if (!timedOut.get()) {
+                            throw e;
+                        }
+                    }
+                }
+                if (samplePeakRss) {
+                    // VmHWM is a high-water mark, so the last sample before the target exits is its peak
+                    do {
+                        peakRssKb = Math.max(peakRssKb, samplePeakRssKb(process.pid()));
+                    } while (!process.waitFor(RSS_SAMPLE_MILLIS, TimeUnit.MILLISECONDS));
+                    exitCode = process.exitValue();
+                } else {
+                    exitCode = process.waitFor();
+                }
+            } finally {
+                kill.cancel(false);
+            }
+            long duration = System.nanoTime() - start;
+            metrics.recordExecution(duration);
+
+            try {
+                // Descendants of the target can keep the pipe open after it exited
+                drained.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // Keep whatever was read before the stream failed
+            } catch (TimeoutException e) {
+                process.getInputStream().close();
+                drained.cancel(true);
+                // The drainer may still touch the buffer, so it is not returned to the pool
+                return new ExecutionResult(exitCode, "", timedOut.get(), duration, 0, peakRssKb);
+            }
+        
+            // Output of passing tests is dropped without ever decoding it
+            String decoded = exitCode != 0 && !timedOut.get() ? output.decode() : "";
+            long shape = output.shape();
+            output.release();
+            return new ExecutionResult(exitCode, decoded, timedOut.get(), duration, shape, peakRssKb);
+        }
+
+        /** Peak RSS of the loaded target waiting for its input, or 0 if it was never seen waiting. */
+        long loadedRssKb() {
+            long kb = loadedRssKb.get();
+            return kb == Long.MAX_VALUE ? 0 : kb;
+        }
+
+        /** Samples a new process until it blocks on its stdin, which is the footprint of the loaded target. */
+        private void awaitLoaded(Process process) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (loadedRssKb.get() == Long.MAX_VALUE && System.nanoTime() - deadline < 0
+                    && !process.waitFor(RSS_SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                samplePeakRssKb(process.pid());
+            }
+        }
+
+        /**
+         * VmHWM of the process in KiB, or 0 if it is not known: the process has exited, and an
+         * exited process has no memory left to report, or it has not loaded the target yet.
+         */
+        private long samplePeakRssKb(long pid) {
+            byte[] status = statusBuffers.get();
+            int length;
+            try (InputStream in = new FileInputStream("/proc/" + pid + "/status")) {
+                length = in.readNBytes(status, 0, status.length);
+            } catch (IOException e) {
+                return 0;
+            }
+            long kb = parseKb(status, length, "VmHWM:");
+            int state = TagTree.indexOf(status, 0, length, "State:\tS");
+            if (kb > 0 && state >= 0) {
+                loadedRssKb.accumulate(kb);
+            }
+            return kb >= loadedRssKb.get() ? kb : 0;
+        }
+
+        private static long parseKb(byte[] status, int length, String field) {
+            int at = TagTree.indexOf(status, 0, length, field);
+            if (at < 0) {
+                return 0;
+            }
+            long kb = 0;
+            for (int i = at + field.length(); i < length && status[i] != '\n'; i++) {
+                if (status[i] >= '0' && status[i] <= '9') {
+                    kb = kb * 10 + status[i] - '0';
+                }
+            }
+            return kb;
+        }
+
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.close();
+            } else {
+                inputFiles.close();
+            }
+        }
+
+        @Override
+        public void printSummary() {
+            if (pool != null) {
+                pool.printSummary();
+            }
+        }
+    }
+
+    /**
+     * Calls a Java method inside this JVM for every input, which saves starting a process per test.
+     * The method is given as {@code Class#method} and loaded from the harness jar; it must take a
+     * {@code byte[]}, a {@code String} or an {@code InputStream}. A static method is called
+     * directly, otherwise every thread calling into the harness gets its own instance from the
+     * no-argument constructor; one is created up front, so a constructor that fails stops the
+     * fuzzer before it starts rather than making every input a crash. A thrown exception or error is a crash, with its stack trace as the output, and
+     * a call that does not return within the timeout is a hang. A hanging call is interrupted and
+     * its thread stopped; where the JVM no longer supports stopping threads, the call keeps its
+     * thread busy for good, and a warning suggests fuzzing the code as a process instead.
+     */
+    static final class JvmTarget implements Target {
+        private static final int MAX_STACK_FRAMES = 8;
+        private static final int MAX_STUCK_CALLS = 8;
+
+        private final URLClassLoader classLoader;
+        private final Method method;
+        private final ThreadLocal<Object> instances;
+        private final ExecutorService callers = Executors.newCachedThreadPool(daemonThreads("harness"));
+        private final AtomicInteger stuckCalls = new AtomicInteger();
+
+        JvmTarget(Path jar, String harness) {
+            int separator = harness.indexOf('#');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected <class>#<method> but got '%s'.".formatted(harness));
+            }
+            try {
+                classLoader = new URLClassLoader(new URL[] {jar.toUri().toURL()}, Fuzzer.class.getClassLoader());
+                Class<?> harnessClass = Class.forName(harness.substring(0, separator), true, classLoader);
+                String name = harness.substring(separator + 1);
+                method = Arrays.stream(harnessClass.getMethods())
+                    .filter(candidate -> candidate.getName().equals(name) && candidate.getParameterCount() == 1)
+                    .filter(candidate -> List.of(byte[].class, String.class, InputStream.class).contains(candidate.getParameterTypes()[0]))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                        "'%s' has no public method %s taking a byte[], String or InputStream.".formatted(harnessClass.getName(), name)));
+                Constructor<?> constructor = Modifier.isStatic(method.getModifiers()) ? null : harnessClass.getConstructor();
+                if (constructor != null) {
+                    constructor.newInstance();
+                }
+                instances = ThreadLocal.withInitial(() -> {
+                    try {
+                        return constructor == null ? null : constructor.newInstance();
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("Could not create an instance of " + harnessClass.getName(), e);
+                    }
+                });
+            } catch (IOException | ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Could not load harness '%s' from '%s'.".formatted(harness, jar), e);
+            }
+        }
+
+        @Override
+        public ExecutionResult run(byte[] input) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            // Holds the thread running the call while it is in the harness
+            AtomicReference<Thread> caller = new AtomicReference<>();
+            Future<Throwable> call = callers.submit(() -> {
+                caller.set(Thread.currentThread());
+                try {
+                    return invoke(input);
+                } finally {
+                    synchronized (caller) {
+                        caller.set(null);
+                    }
+                }
+            });
+            Throwable failure;
+            boolean timedOut = false;
+            try {
+                failure = call.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                call.cancel(true);
+                stop(caller);
+                failure = null;
+                timedOut = true;
+            } catch (ExecutionException e) {
+                // Not thrown by the harness method, which invoke returns, but by setting up the call
+                throw new IOException("Could not call the harness.", e.getCause());
+            }
+            long duration = System.nanoTime() - start;
+            metrics.recordExecution(duration);
+            if (failure == null) {
+                return new ExecutionResult(0, "", timedOut, duration, 0, 0);
+            }
+            String output = describe(failure);
+            return new ExecutionResult(1, output, false, duration, OutputBuffer.shape(utf8(output)), 0);
+        }
+
+        @SuppressWarnings({"deprecation", "removal"})
+        private void stop(AtomicReference<Thread> caller) {
+            synchronized (caller) {
+                Thread thread = caller.get();
+                if (thread == null) {
+                    return;
+                }
+                try {
+                    thread.stop();
+                } catch (UnsupportedOperationException e) {
+                    if (stuckCalls.incrementAndGet() == MAX_STUCK_CALLS) {
+                        Log.error(MAX_STUCK_CALLS + " harness calls hung and cannot be stopped on this JVM, each keeps a thread busy."
+                            + " Consider fuzzing the code as a process instead.", e);
+                    }
+                }
+            }
+        }
+
+        /** Calls the harness and returns what it threw, or null if it returned normally. */
+        private Throwable invoke(byte[] input) {
+            Class<?> parameterType = method.getParameterTypes()[0];
+            Object argument = parameterType == byte[].class ? input.clone()
+                : parameterType == String.class ? new String(input, StandardCharsets.UTF_8)
+                : new ByteArrayInputStream(input);
+            Object instance = instances.get();
+            try {
+                method.invoke(instance, argument);
+                return null;
+            } catch (InvocationTargetException e) {
+                // A call stopped after its timeout ends here too, but run() has stopped waiting
+                // for it by then and reports the timeout instead
+                return e.getCause();
+            } catch (Throwable e) {
+                return e;
+            }
+        }
+
+        /** The exception and the top of its stack, like the first lines of an uncaught exception. */
+        private String describe(Throwable failure) {
+            StringBuilder output = new StringBuilder(failure.toString());
+            // Frames below the harness method belong to reflection, whose implementation changes
+            // after a number of calls, so they would split one crash into several buckets
+            StackTraceElement[] frames = failure.getStackTrace();
+            for (int i = 0; i < Math.min(frames.length, MAX_STACK_FRAMES); i++) {
+                output.append(System.lineSeparator()).append("\tat ").append(frames[i]);
+                if (frames[i].getClassName().equals(method.getDeclaringClass().getName())
+                        && frames[i].getMethodName().equals(method.getName())) {
+                    break;
+                }
+            }
+            return output.length() <= maxOutputBytes ? output.toString() : output.substring(0, maxOutputBytes);
+        }
+
+        @Override
+        public void close() {
+            callers.shutdownNow();
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                // Nothing left to load from it
+            }
+        }
+    }
+
+    /**
+     * Collects the merged stdout and stderr of one execution. At most --max-output bytes are kept,
+     * anything beyond that is read and counted but dropped. Buffers are pooled so that passing tests
+     * do not allocate for their output.
+     */
+    static final class OutputBuffer {
+        private static final Queue<OutputBuffer> pool = new ConcurrentLinkedQueue<>();
+        private static final int INITIAL_CAPACITY = 4096;
+
+        private byte[] bytes = new byte[Math.min(INITIAL_CAPACITY, maxOutputBytes)];
+        private final byte[] overflow = new byte[INITIAL_CAPACITY];
+        private int length;
+        private long totalLength;
+
+        static OutputBuffer acquire() {
+            OutputBuffer buffer = pool.poll();
+            return buffer != null ? buffer : new OutputBuffer();
+        }
+
+        void release() {
+            length = 0;
+            totalLength = 0;
+            pool.add(this);
+        }
+
+        void drain(InputStream in) throws IOException {
+            while (true) {
+                if (length == bytes.length && bytes.length < maxOutputBytes) {
+                    bytes = Arrays.copyOf(bytes, Math.min(bytes.length * 2, maxOutputBytes));
+                }
+                int read = length < bytes.length
+                    ? in.read(bytes, length, bytes.length - length)
+                    : in.read(overflow, 0, overflow.length);
+                if (read < 0) {
+                    return;
+                }
+                if (length < bytes.length) {
+                    length += read;
+                }
+                totalLength += read;
+            }
+        }
+
+        /**
+         * Summarizes which kinds of lines the output contains, ignoring their order, how often they
+         * occur and anything after the first ':' (which is usually echoed input). Each kind of
+         * line sets one of the 64 bits.
+         */
+        long shape() {
+            return shape(bytes, length);
+        }
+
+        static long shape(byte[] bytes) {
+            return shape(bytes, bytes.length);
+        }
+
+        private static long shape(byte[] bytes, int length) {
+            long shape = 0;
+            long lineHash = FNV_OFFSET_BASIS;
+            boolean inPrefix = true;
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if (b == '\n') {
+                    shape |= 1L << (mix64(lineHash) & 63);
+                    lineHash = FNV_OFFSET_BASIS;
+                    inPrefix = true;
+                } else if (b == ':') {
+                    inPrefix = false;
+                } else if (inPrefix) {
+                    lineHash = (lineHash ^ b) * FNV_PRIME;
+                }
+            }
+            return lineHash == FNV_OFFSET_BASIS ? shape : shape | 1L << (mix64(lineHash) & 63);
+        }
+
+        String decode() {
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            if (totalLength > length) {
+                text += System.lineSeparator() + "[output truncated, %d of %d bytes shown]".formatted(length, totalLength);
+            }
+            return text;
+        }
+    }
+
+    private static void killProcessTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * Hands out target processes. With a size above zero, that many processes are kept started and
+     * blocked on their stdin, so a test only pays for writing its input and waiting for the result.
+     * Every process handed out is replaced by a new one in the background.
+     */
+    static final class ProcessPool implements AutoCloseable {
+        private record Spawned(Process process, long spawnNanos) {}
+
+        private final ProcessBuilder builder;
+        private final int size;
+        private final BlockingQueue<Future<Spawned>> ready = new LinkedBlockingQueue<>();
+        private final ExecutorService spawner;
+        private final LongAdder taken = new LongAdder();
+        private final LongAdder spawnNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+
+        ProcessPool(ProcessBuilder builder, int size) {
+            this.builder = builder;
+            this.size = size;
+            this.spawner = size > 0 ? Executors.newFixedThreadPool(size, daemonThreads("spawner")) : null;
+            for (int i = 0; i < size; i++) {
+                ready.add(spawner.submit(this::spawn));
+            }
+        }
+
+        private Spawned spawn() throws IOException {
+            long start = System.nanoTime();
+            Process process = builder.start();
+            return new Spawned(process, System.nanoTime() - start);
+        }
+
+        Process take() throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            Spawned spawned;
+            if (spawner == null) {
+                spawned = spawn();
+            } else {
+                Future<Spawned> next = ready.take();
+                ready.add(spawner.submit(this::spawn));
+                try {
+                    spawned = next.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Could not start target process.", e.getCause());
+                }
+            }
+            taken.increment();
+            spawnNanos.add(spawned.spawnNanos());
+            waitNanos.add(System.nanoTime() - start);
+            return spawned.process();
+        }
+
+        @Override
+        public void close() {
+            if (spawner == null) {
+                return;
+            }
+            spawner.shutdown();
+            for (Future<Spawned> parked : ready) {
+                try {
+                    parked.get().process().destroyForcibly();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    // Never started, nothing to clean up
+                }
+            }
+            ready.clear();
+        }
+
+        void printSummary() {
+            long count = taken.sum();
+            if (spawner == null || count == 0) {
+                return;
+            }
+            double spawnMillis = spawnNanos.sum() / 1e6;
+            double waitMillis = waitNanos.sum() / 1e6;
+            System.out.println("\nProcess Pool (" + size + " pre-spawned):");
+            System.out.printf("Average spawn latency: %.3f ms%n", spawnMillis / count);
+            System.out.printf("Average wait for a process: %.3f ms%n", waitMillis / count);
+            System.out.printf("Spawn latency saved: %.1f ms%n", Math.max(0, spawnMillis - waitMillis));
+        }
+    }
+
+    /**
+     * Hands each input to the target as a file its stdin is redirected from, instead of writing it
+     * into a pipe, so a large input is not pushed through the pipe buffer a few KiB at a time while
+     * the target reads it. Every worker thread has its own file, rewritten for each input, in a
+     * directory on tmpfs where there is one. The target can only be started once its input is
+     * written, so nothing is pre-spawned.
+     */
+    static final class InputFiles implements AutoCloseable {
+        private final Path directory;
+        private final Queue<FileChannel> channels = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger fileCount = new AtomicInteger();
+        private final ThreadLocal<Path> threadFiles = ThreadLocal.withInitial(() -> file(fileCount.incrementAndGet()));
+        private final ThreadLocal<ProcessBuilder> threadBuilders;
+        private final ThreadLocal<FileChannel> threadChannels;
+
+        InputFiles(Supplier<ProcessBuilder> builders) {
+            Path shared = Paths.get("/dev/shm");
+            try {
+                directory = Files.createTempDirectory(Files.isDirectory(shared) && Files.isWritable(shared) ? shared
+                    : Paths.get(System.getProperty("java.io.tmpdir")), "fuzzer-inputs-");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create a directory for the input files.", e);
+            }
+            threadBuilders = ThreadLocal.withInitial(() -> builders.get().redirectInput(threadFiles.get().toFile()));
+            threadChannels = ThreadLocal.withInitial(() -> {
+                try {
+                    FileChannel channel = FileChannel.open(threadFiles.get(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    channels.add(channel);
+                    return channel;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        Path directory() {
+            return directory;
+        }
+
+        /** Writes the input to the file of this thread and starts the target reading it. */
+        Process start(InputSource input) throws IOException {
+            FileChannel channel = threadChannels.get();
+            channel.position(0);
+            // Not closed, as that would close the channel
+            input.writeTo(Channels.newOutputStream(channel));
+            channel.truncate(channel.position());
+            return threadBuilders.get().start();
+        }
+
+        private Path file(int number) {
+            return directory.resolve("input-" + number);
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (FileChannel channel : channels) {
+                    channel.close();
+                }
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : files.toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                Log.error("Could not remove the input files in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Stress test of how the target scales with the size of its input. For every document shape
+     * it sweeps sizes from 1 KiB up to the --scaling limit, doubling each time, and streams every
+     * document straight into the target's stdin in chunks, so not even the largest one is built in
+     * memory. Each size is run a few times, keeping the fastest time and the highest peak RSS. The
+     * report gives the growth exponent between neighbouring sizes and over the whole sweep, beyond
+     * the cost of an empty input; an exponent well above 1 is super-linear behaviour.
+     */
+    static final class ScalingSweep {
+        private static final int MIN_BYTES = 1 << 10;
+        private static final int RUNS = 3;
+        // The empty input runs first, while the JVM and the target are still warming up, so it gets more runs
+        private static final int BASELINE_RUNS = 20;
+        private static final int CHUNK_BYTES = 1 << 16;
+        // An exponent above this over the sweep is reported as super-linear, leaving room for timing noise
+        private static final double SUPER_LINEAR = 1.3;
+
+        /**
+         * A document made of a prefix, a unit opened and then closed as many times as the size
+         * allows, and a suffix: deep nesting opens elements and closes them all at the end, the
+         * other shapes only repeat the opening unit.
+         */
+        record Shape(String name, byte[] prefix, byte[] open, byte[] close, byte[] suffix) {
+            Shape(String name, String prefix, String open, String close, String suffix) {
+                this(name, utf8(prefix), utf8(open), utf8(close), utf8(suffix));
+            }
+
+            long repeats(long size) {
+                return Math.max(0, (size - prefix.length - DEEP_NESTED_CONTENT.length - suffix.length) / (open.length + close.length));
+            }
+
+            long length(long repeats) {
+                return prefix.length + repeats * (open.length + close.length) + DEEP_NESTED_CONTENT.length + suffix.length;
+            }
+
+            void writeTo(OutputStream out, long repeats) throws IOException {
+                out.write(prefix);
+                writeRepeated(out, open, repeats);
+                out.write(DEEP_NESTED_CONTENT);
+                writeRepeated(out, close, repeats);
+                out.write(suffix);
+            }
+
+            private static void writeRepeated(OutputStream out, byte[] unit, long repeats) throws IOException {
+                if (unit.length == 0 || repeats == 0) {
+                    return;
+                }
+                // One chunk of whole units, written as often as needed and then in part for the rest
+                int unitsPerChunk = (int) Math.min(repeats, Math.max(1, CHUNK_BYTES / unit.length));
+                byte[] chunk = new byte[unitsPerChunk * unit.length];
+                for (int i = 0; i < unitsPerChunk; i++) {
+                    System.arraycopy(unit, 0, chunk, i * unit.length, unit.length);
+                }
+                for (long left = repeats; left > 0; left -= unitsPerChunk) {
+                    out.write(chunk, 0, (int) Math.min(left, unitsPerChunk) * unit.length);
+                }
+            }
+        }
+
+        private static final List<Shape> SHAPES = List.of(
+            new Shape("deep nesting", "<html>\n<body>\n", "<div>\n", "</div>\n", "</body>\n</html>\n"),
+            new Shape("wide siblings", "<html>\n<body>\n<ul>\n", "<li>item</li>\n", "", "</ul>\n</body>\n</html>\n"),
+            new Shape("long text", "<html>\n<body>\n<p>\n", "lorem ipsum dolor sit amet\n", "", "</p>\n</body>\n</html>\n"),
+            new Shape("huge attribute", "<html>\n<body>\n<div title=\"", "abcdefghij", "", "\">\n</div>\n</body>\n</html>\n"));
+
+        private final ProcessTarget target;
+        private final long maxBytes;
+
+        ScalingSweep(ProcessTarget target, long maxBytes) {
+            this.target = target;
+            this.maxBytes = maxBytes;
+        }
+
+        void run() {
+            long[] baseline = measure(out -> {}, 0, BASELINE_RUNS);
+            if (baseline == null) {
+                return;
+            }
+            if (baseline[1] == 0) {
+                // Too quick to be sampled every time, but an empty input takes what the loaded target takes
+                baseline[1] = target.loadedRssKb();
+            }
+            System.out.printf("Empty input: %.3f ms, %s KiB%n", baseline[0] / 1e6, baseline[1] > 0 ? baseline[1] : "-");
+            for (Shape shape : SHAPES) {
+                sweep(shape, baseline);
+            }
+        }
+
+        private void sweep(Shape shape, long[] baseline) {
+            System.out.printf("%n%s:%n%12s %12s %10s %12s%n", shape.name(), "bytes", "ms", "KiB", "time growth");
+            List<long[]> points = new ArrayList<>();
+            for (long size = MIN_BYTES; size <= maxBytes; size *= 2) {
+                long repeats = shape.repeats(size);
+                long length = shape.length(repeats);
+                long[] cost = measure(out -> shape.writeTo(out, repeats), length, RUNS);
+                if (cost == null) {
+                    break;
+                }
+                String growth = "";
+                if (!points.isEmpty()) {
+                    long[] previous = points.get(points.size() - 1);
+                    growth = Complexity.growth(Complexity.slope(new long[] {previous[0], length},
+                        new long[] {excessNanos(previous[1], baseline), excessNanos(cost[0], baseline)}));
+                }
+                System.out.printf("%12d %12.3f %10s %12s%n", length, cost[0] / 1e6, cost[1] > 0 ? cost[1] : "-", growth);
+                points.add(new long[] {length, cost[0], cost[1]});
+            }
+            long[] sizes = points.stream().mapToLong(point -> point[0]).toArray();
+            double timeExponent = Complexity.slope(sizes, points.stream().mapToLong(point -> excessNanos(point[1], baseline)).toArray());
+            double memoryExponent = Complexity.slope(sizes, points.stream().mapToLong(point -> excessRssKb(point[2], baseline)).toArray());
+            System.out.printf("Over the sweep: time %s, memory %s%s%n", Complexity.growth(timeExponent), Complexity.growth(memoryExponent),
+                timeExponent > SUPER_LINEAR || memoryExponent > SUPER_LINEAR ? " -- super-linear" : "");
+        }
+
+        /**
+         * Time beyond the empty input, or 0, which the fit skips, while it is no larger than the
+         * time of the empty input itself: below that, the difference is mostly timing noise.
+         */
+        private static long excessNanos(long nanos, long[] baseline) {
+            return nanos >= 2 * baseline[0] ? nanos - baseline[0] : 0;
+        }
+
+        /**
+         * Peak RSS beyond the empty input, or 0, which the fit skips, if either was never sampled or
+         * while it is no larger than the empty input's: below that, the difference is mostly how
+         * the target happened to be laid out in memory.
+         */
+        private static long excessRssKb(long rssKb, long[] baseline) {
+            return rssKb > 0 && baseline[1] > 0 && rssKb >= 2 * baseline[1] ? rssKb - baseline[1] : 0;
+        }
+
+        /**
+         * Fastest time and highest peak RSS of a few runs, or null once the target crashes or hangs.
+         * The peak RSS is 0, and left out of the fit, unless every run had a sample of the loaded
+         * target: a run without one could have had any peak.
+         */
+        private long[] measure(InputSource input, long length, int runs) {
+            long nanos = Long.MAX_VALUE;
+            long rssKb = 0;
+            boolean everyRunSampled = true;
+            for (int run = 0; run < runs; run++) {
+                try {
+                    ExecutionResult result = target.run(input);
+                    if (result.timedOut()) {
+                        System.out.printf("%12d  hangs, killed after %d ms%n", length, timeoutMillis);
+                        return null;
+                    }
+                    if (result.exitCode() != 0) {
+                        System.out.printf("%12d  crashes with exit code %d: %s%n", length, result.exitCode(), abbreviate(result.output(), 80));
+                        return null;
+                    }
+                    nanos = Math.min(nanos, result.durationNanos());
+                    rssKb = Math.max(rssKb, result.peakRssKb());
+                    everyRunSampled &= result.peakRssKb() > 0;
+                } catch (IOException e) {
+                    System.out.printf("%12d  could not run the target: %s%n", length, e.getMessage());
+                    return null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return new long[] {nanos, everyRunSampled ? rssKb : 0};
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void reportHang(TestCase testCase) {
+        byte[] input = testCase.data();
+        hangs.incrementAndGet();
+        if (store != null) {
+            store.saveHang(input);
+        }
+        Log.info("Found hang in %s, killed after %d ms, input (%d bytes) written to %s".formatted(
+            testCase.name(), timeoutMillis, input.length, Log.inputLogFile));
+        Log.input("Hang in " + testCase.name() + ":", input);
+    }
+
+    /** Reports a crash and returns whether it opened a new crash bucket. */
+    private static boolean reportCrash(TestCase testCase, ExecutionResult result) {
+        byte[] input = testCase.data();
+        failedTests.incrementAndGet();
+        String text = new String(input, StandardCharsets.UTF_8);
+        long signature = crashSignature(result.exitCode(), result.output(), text);
+        CrashBucket bucket = crashBuckets.computeIfAbsent(signature, key -> new CrashBucket(key, result.exitCode()));
+        boolean newBucket = bucket.hit() == 1 && !bucket.pulled();
+        if (newBucket) {
+            budget.progress();
+        }
+        if (bucket.offer(input, result.output()) && store != null) {
+            store.saveCrash(bucket);
+        }
+        if (newBucket) {
+            Log.info("New crash bucket %016x with exit code %d in %s: %s (input written to %s)".formatted(
+                signature, result.exitCode(), testCase.name(), abbreviate(result.output(), 100), Log.inputLogFile));
+        } else if (Log.isVerbose()) {
+            Log.verbose("Found crash in bucket %016x with exit code %d in %s (input written to %s)".formatted(
+                signature, result.exitCode(), testCase.name(), Log.inputLogFile));
+        }
+        if (newBucket || Log.isVerbose()) {
+            Log.input("Crash %016x with exit code %d in %s, program output: %s".formatted(
+                signature, result.exitCode(), testCase.name(), result.output()), input);
+        }
+        return newBucket;
+    }
+
+    private static final Pattern HEX_NUMBER = Pattern.compile("0[xX][0-9a-fA-F]+");
+    private static final Pattern DECIMAL_NUMBER = Pattern.compile("[0-9]+");
+    private static final int MIN_ECHO_LENGTH = 4;
+
+    /**
+     * Hashes the exit code together with the output, normalized so that crashes differing only in
+     * numbers, addresses or the part of the input they echo get the same signature. On every line,
+     * text after a ':' that also occurs in the input is masked.
+     */
+    static long crashSignature(int exitCode, String output, String input) {
+        StringBuilder normalized = new StringBuilder(output.length());
+        for (String line : output.split("\\R")) {
+            int colon = line.indexOf(':');
+            if (colon >= 0) {
+                String value = line.substring(colon + 1).trim();
+                if (value.length() >= MIN_ECHO_LENGTH && input.contains(value)) {
+                    line = line.substring(0, colon + 1) + " <input>";
+                }
+            }
+            line = HEX_NUMBER.matcher(line).replaceAll("0x#");
+            line = DECIMAL_NUMBER.matcher(line).replaceAll("#");
+            normalized.append(line.trim()).append('\n');
+        }
+        return mix64(hash64(utf8(normalized.toString())) ^ exitCode);
+    }
+
+    /**
+     * All crashes sharing one signature. Only the hit count and the smallest input seen, with its
+     * output, are kept, so memory does not grow with the number of crashes.
+     */
+    static final class CrashBucket {
+        private final long signature;
+        private final int exitCode;
+        private final AtomicLong hits = new AtomicLong();
+        private byte[] input;
+        private String output;
+        private byte[] minimized;
+        // Found by another fuzzer and pulled from the coordinator, so not new when found here
+        private volatile boolean pulled;
+        // Its input is in the crashes directory, so a checkpoint can list it
+        private volatile boolean saved;
+
+        CrashBucket(long signature, int exitCode) {
+            this.signature = signature;
+            this.exitCode = exitCode;
+        }
+
+        boolean pulled() {
+            return pulled;
+        }
+
+        void markPulled() {
+            pulled = true;
+        }
+
+        boolean saved() {
+            return saved;
+        }
+
+        void markSaved() {
+            saved = true;
+        }
+
+        long hit() {
+            return hits.incrementAndGet();
+        }
+
+        /** Keeps the input if it is the smallest so far and returns whether it was kept. */
+        synchronized boolean offer(byte[] candidate, String candidateOutput) {
+            if (input != null && input.length <= candidate.length) {
+                return false;
+            }
+            input = candidate;
+            output = candidateOutput;
+            return true;
+        }
+
+        long signature() {
+            return signature;
+        }
+
+        int exitCode() {
+            return exitCode;
+        }
+
+        long hits() {
+            return hits.get();
+        }
+
+        synchronized byte[] input() {
+            return input;
+        }
+
+        synchronized String output() {
+            return output;
+        }
+
+        void restore(long restoredHits) {
+            hits.set(restoredHits);
+        }
+
+        synchronized byte[] minimized() {
+            return minimized;
+        }
+
+        synchronized void setMinimized(byte[] minimizedInput) {
+            minimized = minimizedInput;
+        }
+    }
+
+    /**
+     * Shrinks the input of a crash bucket with delta debugging (ddmin) while keeping its crash
+     * signature: first over tag-level chunks, then over single characters. The candidates of each
+     * ddmin step are executed in parallel on the worker pool.
+     */
+    static final class Minimizer {
+        private final Target target;
+        private final CrashBucket bucket;
+        private final AtomicInteger executions = new AtomicInteger();
+
+        Minimizer(Target target, CrashBucket bucket) {
+            this.target = target;
+            this.bucket = bucket;
+        }
+
+        void run() {
+            byte[] input = bucket.input();
+            byte[] previous = bucket.minimized();
+            if (previous != null && previous.length <= input.length) {
+                // Minimized by an earlier run, and no smaller input has turned up since
+                Log.verbose("Crash %016x is already minimized".formatted(bucket.signature()));
+                return;
+            }
+            if (!reproduces(input)) {
+                Log.info("Crash %016x does not reproduce, skipping minimization".formatted(bucket.signature()));
+                return;
+            }
+            byte[] minimized = ddmin(splitAtTags(input));
+            minimized = ddmin(splitIntoCharacters(minimized));
+            bucket.setMinimized(minimized);
+            if (store != null) {
+                store.saveMinimized(bucket);
+            }
+            Log.info("Minimized crash %016x from %d to %d bytes in %d executions".formatted(
+                bucket.signature(), input.length, minimized.length, executions.get()));
+        }
+
+        private byte[] ddmin(List<byte[]> units) {
+            int granularity = 2;
+            while (units.size() >= 2 && executions.get() < MAX_MINIMIZATION_EXECUTIONS) {
+                List<List<byte[]>> chunks = partition(units, granularity);
+                // Try every chunk on its own, then every complement, all at once
+                List<List<byte[]>> candidates = new ArrayList<>(chunks);
+                if (granularity > 2) {
+                    for (int i = 0; i < chunks.size(); i++) {
+                        List<byte[]> complement = new ArrayList<>();
+                        for (int j = 0; j < chunks.size(); j++) {
+                            if (j != i) {
+                                complement.addAll(chunks.get(j));
+                            }
+                        }
+                        candidates.add(complement);
+                    }
+                }
+                int reduced = firstReproducing(candidates);
+                if (reduced < 0) {
+                    if (granularity >= units.size()) {
+                        break;
+                    }
+                    granularity = Math.min(granularity * 2, units.size());
+                } else {
+                    units = candidates.get(reduced);
+                    granularity = reduced < chunks.size() ? 2 : Math.max(granularity - 1, 2);
+                }
+            }
+            return concat(units);
+        }
+
+        /**
+         * Index of the first candidate that still crashes the same way, or -1. Only as many
+         * candidates run as the execution cap has room for, as a step at character granularity
+         * can have twice as many candidates as the input has characters.
+         */
+        private int firstReproducing(List<List<byte[]>> candidates) {
+            int room = Math.max(0, MAX_MINIMIZATION_EXECUTIONS - executions.get());
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (List<byte[]> candidate : candidates.subList(0, Math.min(candidates.size(), room))) {
+                results.add(executor.submit(() -> reproduces(concat(candidate))));
+            }
+            int first = -1;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (results.get(i).get() && first < 0) {
+                        first = i;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return first;
+        }
+
+        private boolean reproduces(byte[] candidate) {
+            executions.incrementAndGet();
+            try {
+                ExecutionResult result = target.run(candidate);
+                return !result.timedOut() && result.exitCode() != 0
+                    && crashSignature(result.exitCode(), result.output(), new String(candidate, StandardCharsets.UTF_8)) == bucket.signature();
+            } catch (IOException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private static List<List<byte[]>> partition(List<byte[]> units, int parts) {
+            List<List<byte[]>> chunks = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                int from = units.size() * i / parts;
+                int to = units.size() * (i + 1) / parts;
+                if (from < to) {
+                    chunks.add(units.subList(from, to));
+                }
+            }
+            return chunks;
+        }
+
+        /** Splits before every '<' and after every '>', so tags and the text between them become units. */
+        private static List<byte[]> splitAtTags(byte[] input) {
+            List<byte[]> units = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < input.length; i++) {
+                if (input[i] == '<' && i > start) {
+                    units.add(Arrays.copyOfRange(input, start, i));
+                    start = i;
+                } else if (input[i] == '>') {
+                    units.add(Arrays.copyOfRange(input, start, i + 1));
+                    start = i + 1;
+                }
+            }
+            if (start < input.length) {
+                units.add(Arrays.copyOfRange(input, start, input.length));
+            }
+            return units;
+        }
+
+        /** Splits into UTF-8 encoded characters. */
+        private static List<byte[]> splitIntoCharacters(byte[] input) {
+            List<byte[]> units = new ArrayList<>();
+            int start = 0;
+            for (int i = 1; i <= input.length; i++) {
+                if (i == input.length || (input[i] & 0xC0) != 0x80) {
+                    units.add(Arrays.copyOfRange(input, start, i));
+                    start = i;
+                }
+            }
+            return units;
+        }
+
+        private static byte[] concat(List<byte[]> units) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            units.forEach(bytes::writeBytes);
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** 64-bit FNV-1a hash of the bytes, finished with {@link #mix64} to spread the low bits. */
+    private static long hash64(byte[] data, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ data[i]) * FNV_PRIME;
+        }
+        return mix64(hash);
+    }
+
+    private static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    // Finalizer of SplitMix64
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Evolving set of inputs to mutate. An execution counts as new behaviour if it yields an exit
+     * code and output shape not seen before, a new error message, or a runtime far above the usual.
+     * Passing inputs with new behaviour are added as entries, and the entry they were derived from
+     * is credited with a find.
+     *
+     * <p>The power schedule gives every entry {@code mutationsPerSeed} mutants per round, doubled for
+     * each find (up to 16 times) and halved for each round in a row without one (down to an eighth).
+     */
+    static final class Corpus {
+        private static final int MAX_FIND_BOOST = 4;
+        private static final int MAX_BARREN_PENALTY = 3;
+        private static final int MIN_TIMING_SAMPLES = 30;
+
+        static final class Entry {
+            private final long hash;
+            private final int bodyOffset;
+            // Entries loaded from the campaign store read their bytes on first use
+            private volatile TestCase input;
+            // Index of an entry that is a file of the seed directory, which Seeds reads and keeps; else -1
+            private final int seedFile;
+            private final AtomicInteger finds = new AtomicInteger();
+            private final AtomicInteger barrenRounds = new AtomicInteger();
+
+            Entry(long hash, int bodyOffset, TestCase input, int seedFile) {
+                this.hash = hash;
+                this.bodyOffset = bodyOffset;
+                this.input = input;
+                this.seedFile = seedFile;
+            }
+
+            TestCase input() {
+                if (seedFile >= 0) {
+                    return seeds.get(seedFile);
+                }
+                TestCase loaded = input;
+                if (loaded == null) {
+                    loaded = new TestCase(store.readCorpusEntry(hash), bodyOffset, 0, null);
+                    input = loaded;
+                }
+                return loaded;
+            }
+
+            int finds() {
+                return finds.get();
+            }
+        }
+
+        private final List<Entry> entries = new CopyOnWriteArrayList<>();
+        private final Set<Long> contentHashes = ConcurrentHashMap.newKeySet();
+        private final Set<Long> behaviours = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger added = new AtomicInteger();
+        // Running mean and variance of the execution time (Welford)
+        private long timingSamples;
+        private double meanNanos;
+        private double squaredDeviations;
+
+        boolean add(TestCase input) {
+            long hash = hash64(input.data());
+            if (!contentHashes.add(hash)) {
+                return false;
+            }
+            if (store != null) {
+                store.saveCorpusEntry(hash, input);
+            }
+            entries.add(new Entry(hash, input.bodyOffset(), input, -1));
+            return true;
+        }
+
+        /** Adds an entry already in the campaign store without reading its bytes. */
+        void addStored(long hash, int bodyOffset) {
+            if (contentHashes.add(hash)) {
+                entries.add(new Entry(hash, bodyOffset, null, -1));
+            }
+        }
+
+        /**
+         * Adds a file of the seed directory without reading it. Its hash is not known yet, so a
+         * mutant with the same content can still be added; that costs one entry, not a read of
+         * every seed at startup.
+         */
+        void addSeedFile(int index) {
+            entries.add(new Entry(0, -1, null, index));
+        }
+
+        Set<Long> behaviours() {
+            return behaviours;
+        }
+
+        /** Records the result of a mutant and returns whether it found something new. */
+        boolean observe(Entry parent, TestCase input, ExecutionResult result, boolean newCrash) {
+            boolean newBehaviour = behaviours.add(result.exitCode() * 0x9e3779b97f4a7c15L ^ result.outputShape());
+            boolean slow = recordDuration(result.durationNanos());
+            if (!newCrash && !newBehaviour && !slow) {
+                return false;
+            }
+            if (parent != null) {
+                parent.finds.incrementAndGet();
+            }
+            if (result.exitCode() == 0 && add(input)) {
+                added.incrementAndGet();
+                budget.progress();
+            }
+            return true;
+        }
+
+        /** Records an execution time and returns whether it is an outlier. */
+        synchronized boolean recordDuration(long nanos) {
+            boolean outlier = timingSamples >= MIN_TIMING_SAMPLES
+                && nanos > 2 * meanNanos
+                && nanos > meanNanos + 4 * Math.sqrt(squaredDeviations / timingSamples);
+            timingSamples++;
+            double delta = nanos - meanNanos;
+            meanNanos += delta / timingSamples;
+            squaredDeviations += delta * (nanos - meanNanos);
+            return outlier;
+        }
+
+        int energy(Entry entry) {
+            int boost = Math.min(entry.finds(), MAX_FIND_BOOST) - Math.min(entry.barrenRounds.get(), MAX_BARREN_PENALTY);
+            double energy = boost >= 0 ? mutationsPerSeed * (double) (1 << boost) : mutationsPerSeed / (double) (1 << -boost);
+            return Math.max(1, (int) energy);
+        }
+
+        void finishRound(Entry entry, int findsBefore) {
+            if (entry.finds() > findsBefore) {
+                entry.barrenRounds.set(0);
+            } else {
+                entry.barrenRounds.incrementAndGet();
+            }
+        }
+
+        /** Picks an entry with a probability proportional to its energy. */
+        Entry select(RandomGenerator random) {
+            List<Entry> current = snapshot();
+            long total = 0;
+            for (Entry entry : current) {
+                total += energy(entry);
+            }
+            long pick = (long) (random.nextDouble() * total);
+            for (Entry entry : current) {
+                pick -= energy(entry);
+                if (pick < 0) {
+                    return entry;
+                }
+            }
+            return current.get(current.size() - 1);
+        }
+
+        List<Entry> snapshot() {
+            return List.copyOf(entries);
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        void printSummary() {
+            System.out.println("\nCorpus:");
+            System.out.println("Entries: " + entries.size() + " (" + added.get() + " added during the run)");
+            System.out.println("Distinct behaviours: " + behaviours.size());
+            entries.stream()
+                .filter(entry -> entry.finds() > 0)
+                .sorted(Comparator.comparingInt(Entry::finds).reversed())
+                .limit(5)
+                .forEach(entry -> System.out.printf("- %d finds, next energy %d: %s%n",
+                    entry.finds(), energy(entry), abbreviate(entry.input().text(), 80)));
+        }
+    }
+
+    /**
+     * Shares discoveries between fuzzers, on one machine or several. Workers started with --sync
+     * connect every --sync-interval seconds, push the corpus entries and crash buckets they found
+     * since their last sync and pull what the others found since then. Corpus entries are
+     * deduplicated by content hash and crashes by signature; a smaller input for a known crash is
+     * passed on as well. Everything is kept in memory, the workers keep their own campaign state.
+     *
+     * <p>Each sync is one connection: the worker sends its id, the position in the log of
+     * discoveries it has seen up to and its new discoveries, and the coordinator answers with the
+     * new position and the discoveries of the other workers after the old one.
+     */
+    static final class Coordinator {
+        private static final int MAGIC = 0x465a5359; // "FZSY"
+        private static final int MAX_FIELD_BYTES = 64 << 20;
+        private static final int SOCKET_TIMEOUT_MILLIS = 30_000;
+
+        record Discovery(long origin, boolean crash, long signature, int exitCode, byte[] input, String output) {}
+
+        private final List<Discovery> discoveries = new ArrayList<>();
+        private final Set<Long> corpusHashes = new HashSet<>();
+        private final Map<Long, Integer> crashInputLengths = new HashMap<>();
+
+        void serve(int port) {
+            ExecutorService handlers = Executors.newCachedThreadPool(daemonThreads("coordinator"));
+            try (ServerSocket server = new ServerSocket(port)) {
+                Log.info("Coordinating fuzzers on port " + server.getLocalPort());
+                while (true) {
+                    Socket socket = server.accept();
+                    handlers.execute(() -> handle(socket));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not coordinate on port %d.".formatted(port), e);
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (socket) {
+                socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != MAGIC) {
+                    return;
+                }
+                long worker = in.readLong();
+                long cursor = in.readLong();
+                List<Discovery> pushed = readDiscoveries(in, worker);
+                List<Discovery> pulled = new ArrayList<>();
+                int accepted = 0;
+                long position;
+                synchronized (this) {
+                    for (Discovery discovery : pushed) {
+                        if (accept(discovery)) {
+                            discoveries.add(discovery);
+                            accepted++;
+                        }
+                    }
+                    // A cursor past the end is from before a restart of the coordinator
+                    int from = cursor <= discoveries.size() ? (int) cursor : 0;
+                    for (Discovery discovery : discoveries.subList(from, discoveries.size())) {
+                        if (discovery.origin() != worker) {
+                            pulled.add(discovery);
+                        }
+                    }
+                    position = discoveries.size();
+                }
+                out.writeLong(position);
+                writeDiscoveries(out, pulled);
+                out.flush();
+                if (accepted > 0) {
+                    Log.info("Worker %016x pushed %d new discoveries, %d known in total".formatted(worker, accepted, position));
+                }
+            } catch (IOException e) {
+                Log.info("Sync with " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+            }
+        }
+
+        private boolean accept(Discovery discovery) {
+            if (!discovery.crash()) {
+                return corpusHashes.add(hash64(discovery.input()));
+            }
+            Integer known = crashInputLengths.get(discovery.signature());
+            if (known != null && known <= discovery.input().length) {
+                return false;
+            }
+            crashInputLengths.put(discovery.signature(), discovery.input().length);
+            return true;
+        }
+
+        static void writeDiscoveries(DataOutputStream out, List<Discovery> discoveries) throws IOException {
+            out.writeInt(discoveries.size());
+            for (Discovery discovery : discoveries) {
+                out.writeBoolean(discovery.crash());
+                writeField(out, discovery.input());
+                if (discovery.crash()) {
+                    out.writeLong(discovery.signature());
+                    out.writeInt(discovery.exitCode());
+                    writeField(out, utf8(discovery.output()));
+                }
+            }
+        }
+
+        static List<Discovery> readDiscoveries(DataInputStream in, long origin) throws IOException {
+            int count = in.readInt();
+            List<Discovery> discoveries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                boolean crash = in.readBoolean();
+                byte[] input = readField(in);
+                if (crash) {
+                    long signature = in.readLong();
+                    int exitCode = in.readInt();
+                    String output = new String(readField(in), StandardCharsets.UTF_8);
+                    discoveries.add(new Discovery(origin, true, signature, exitCode, input, output));
+                } else {
+                    discoveries.add(new Discovery(origin, false, 0, 0, input, null));
+                }
+            }
+            return discoveries;
+        }
+
+        private static void writeField(DataOutputStream out, byte[] field) throws IOException {
+            out.writeInt(field.length);
+            out.write(field);
+        }
+
+        private static byte[] readField(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_FIELD_BYTES) {
+                throw new IOException("Invalid field length " + length);
+            }
+            return in.readNBytes(length);
+        }
+    }
+
+    /**
+     * The worker side of the {@link Coordinator}. Pulled corpus entries are added to the corpus and
+     * pulled crashes become crash buckets, so finding them here again is not reported as new.
+     */
+    static final class SyncClient {
+        private final String host;
+        private final int port;
+        private final long workerId = new SplittableRandom().nextLong();
+        private long cursor;
+        private int pushedCorpusEntries;
+        private final Set<Long> pulledCorpusHashes = new HashSet<>();
+        private final Map<Long, Integer> pushedCrashInputLengths = new HashMap<>();
+        private int pushedEntries;
+        private int pushedCrashes;
+        private int pulledEntries;
+        private int pulledCrashes;
+
+        SyncClient(String address) {
+            int separator = address.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected HOST:PORT for --sync but got '%s'.".formatted(address));
+            }
+            this.host = address.substring(0, separator);
+            this.port = Integer.parseInt(address.substring(separator + 1));
+        }
+
+        synchronized void sync() {
+            List<Corpus.Entry> entries = corpus.snapshot();
+            List<Coordinator.Discovery> pushed = new ArrayList<>();
+            for (Corpus.Entry entry : entries.subList(pushedCorpusEntries, entries.size())) {
+                // Every worker reads the seed directory it was given
+                if (entry.seedFile < 0 && !pulledCorpusHashes.contains(entry.hash)) {
+                    pushed.add(new Coordinator.Discovery(workerId, false, 0, 0, entry.input().data(), null));
+                }
+            }
+            for (CrashBucket bucket : crashBuckets.values()) {
+                byte[] input = bucket.minimized() != null ? bucket.minimized() : bucket.input();
+                Integer known = pushedCrashInputLengths.get(bucket.signature());
+                if (input != null && (known == null || input.length < known)) {
+                    pushed.add(new Coordinator.Discovery(workerId, true, bucket.signature(), bucket.exitCode(), input, bucket.output()));
+                }
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), Coordinator.SOCKET_TIMEOUT_MILLIS);
+                socket.setSoTimeout(Coordinator.SOCKET_TIMEOUT_MILLIS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.writeInt(Coordinator.MAGIC);
+                out.writeLong(workerId);
+                out.writeLong(cursor);
+                Coordinator.writeDiscoveries(out, pushed);
+                out.flush();
+                long position = in.readLong();
+                List<Coordinator.Discovery> pulled = Coordinator.readDiscoveries(in, 0);
+
+                // Only now is everything pushed known to the coordinator
+                pushedCorpusEntries = entries.size();
+                for (Coordinator.Discovery discovery : pushed) {
+                    if (discovery.crash()) {
+                        pushedCrashInputLengths.put(discovery.signature(), discovery.input().length);
+                        pushedCrashes++;
+                    } else {
+                        pushedEntries++;
+                    }
+                }
+                cursor = position;
+                for (Coordinator.Discovery discovery : pulled) {
+                    add(discovery);
+                }
+            } catch (IOException e) {
+                Log.info("Could not sync with the coordinator at %s:%d: %s".formatted(host, port, e.getMessage()));
+            }
+        }
+
+        private void add(Coordinator.Discovery discovery) {
+            if (!discovery.crash()) {
+                pulledCorpusHashes.add(hash64(discovery.input()));
+                if (corpus.add(TestCase.of(discovery.input()))) {
+                    pulledEntries++;
+                }
+                return;
+            }
+            CrashBucket bucket = crashBuckets.computeIfAbsent(discovery.signature(), signature -> {
+                CrashBucket pulledBucket = new CrashBucket(signature, discovery.exitCode());
+                pulledBucket.markPulled();
+                pulledCrashes++;
+                return pulledBucket;
+            });
+            // Remember the length so the input is not pushed straight back
+            pushedCrashInputLengths.merge(discovery.signature(), discovery.input().length, Math::min);
+            if (bucket.offer(discovery.input(), discovery.output()) && store != null) {
+                store.saveCrash(bucket);
+            }
+        }
+
+        synchronized void printSummary() {
+            System.out.println("\nSync with " + host + ":" + port + ":");
+            System.out.printf("Pushed %d corpus entries and %d crash inputs%n", pushedEntries, pushedCrashes);
+            System.out.printf("Pulled %d corpus entries and %d crash buckets found by other workers%n", pulledEntries, pulledCrashes);
+        }
+    }
+
+    /**
+     * Campaign state on disk, so a later run can continue with --resume:
+     * <ul>
+     *   <li>{@code corpus/} holds every corpus entry, named by the hash of its content, and
+     *       {@code corpus.idx} lists them as fixed-size records that are memory-mapped on resume</li>
+     *   <li>{@code crashes/} holds the smallest input of every crash bucket, named by its signature,
+     *       with its output and minimized reproducer next to it</li>
+     *   <li>{@code hangs/} holds every input that timed out</li>
+     *   <li>{@code checkpoint.properties} holds the counters, the campaign seed, the behaviours seen
+     *       and the exit code and hit count of every crash bucket, and whether it was pulled from
+     *       the coordinator</li>
+     *   <li>{@code testcases.log} has a line for every generated test case: its id, its parent (a
+     *       corpus file or another test case), the indices of the mutators applied and the hash of
+     *       the result, which is all --replay needs to regenerate it; --replay reads it backwards
+     *       for the lines of one lineage</li>
+     * </ul>
+     * Everything is written as it is found, the checkpoint after every round.
+     */
+    static final class CampaignStore {
+        // hash, body offset and length of an entry
+        private static final int INDEX_RECORD_BYTES = Long.BYTES + 2 * Integer.BYTES;
+        private static final int LOG_BLOCK_BYTES = 64 * 1024;
+
+        private final Path root;
+        private final Path corpusDirectory;
+        private final Path crashesDirectory;
+        private final Path hangsDirectory;
+        private final Path slowDirectory;
+        private final Path checkpointFile;
+        private final FileChannel index;
+
+        /** Opens the campaign in root, which must not hold one already unless it is continued. */
+        CampaignStore(Path root, boolean continued) {
+            this.root = root;
+            this.corpusDirectory = root.resolve("corpus");
+            this.crashesDirectory = root.resolve("crashes");
+            this.hangsDirectory = root.resolve("hangs");
+            this.slowDirectory = root.resolve("slow");
+            this.checkpointFile = root.resolve("checkpoint.properties");
+            try {
+                Files.createDirectories(corpusDirectory);
+                Files.createDirectories(crashesDirectory);
+                Files.createDirectories(hangsDirectory);
+                Files.createDirectories(slowDirectory);
+                index = FileChannel.open(root.resolve("corpus.idx"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // A new campaign would append to the old index and mix up both campaigns' state
+                if (!continued && (index.size() > 0 || Files.exists(checkpointFile))) {
+                    index.close();
+                    throw new IllegalArgumentException(
+                        "'%s' holds a campaign already, continue it with --resume or choose another --out directory.".formatted(root));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open campaign directory '%s'.".formatted(root), e);
+            }
+        }
+
+        Path root() {
+            return root;
+        }
+
+        Path testCaseLogFile() {
+            return root.resolve("testcases.log");
+        }
+
+        /**
+         * The fields of the log lines of a test case and its generated ancestors, oldest first, so
+         * the first one names the stored corpus entry they descend from. A test case is always
+         * logged after its parent, so the log is scanned once from the end, block by block, keeping
+         * only the lines of the lineage.
+         */
+        Deque<String[]> readLineage(TestCaseId id) {
+            Deque<String[]> lineage = new ArrayDeque<>();
+            String wanted = id.toString();
+            try (FileChannel log = FileChannel.open(testCaseLogFile(), StandardOpenOption.READ)) {
+                long position = log.size();
+                // The start of the line the previous block began in the middle of
+                byte[] carry = new byte[0];
+                while (position > 0 && !wanted.startsWith("corpus/")) {
+                    int length = (int) Math.min(LOG_BLOCK_BYTES, position);
+                    position -= length;
+                    byte[] block = new byte[length + carry.length];
+                    ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+                    while (buffer.hasRemaining()) {
+                        log.read(buffer, position + buffer.position());
+                    }
+                    System.arraycopy(carry, 0, block, length, carry.length);
+                    int end = block.length;
+                    for (int i = end - 1; i >= -1 && !wanted.startsWith("corpus/"); i--) {
+                        // The first line of the file has no newline before it
+                        if (i >= 0 ? block[i] == '\n' : position == 0) {
+                            String[] fields = new String(block, i + 1, end - i - 1, StandardCharsets.US_ASCII).split(" ");
+                            if (fields.length == 4 && fields[0].equals(wanted)) {
+                                lineage.push(fields);
+                                wanted = fields[1];
+                            }
+                            end = i;
+                        }
+                    }
+                    carry = Arrays.copyOf(block, Math.max(end, 0));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the test case log in '%s'.".formatted(root), e);
+            }
+            if (!wanted.startsWith("corpus/")) {
+                throw new IllegalArgumentException("Test case %s is not in %s.".formatted(wanted, testCaseLogFile()));
+            }
+            return lineage;
+        }
+
+        synchronized void saveCorpusEntry(long hash, TestCase input) {
+            try {
+                Files.write(corpusDirectory.resolve(fileName(hash)), input.data());
+                ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES)
+                    .putLong(hash).putInt(input.bodyOffset()).putInt(input.data().length).flip();
+                long end = index.size();
+                while (record.hasRemaining()) {
+                    index.write(record, end + record.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Saves a seed file under its hash, the way replay expects to find the input a test case
+         * descends from. It is not indexed, as resuming adds the seed directory again.
+         */
+        void saveSeed(TestCase seed) {
+            Path file = corpusDirectory.resolve(fileName(hash64(seed.data())));
+            if (!Files.exists(file)) {
+                write(file, seed.data());
+            }
+        }
+
+        byte[] readCorpusEntry(long hash) {
+            try {
+                return Files.readAllBytes(corpusDirectory.resolve(fileName(hash)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * A stored entry with the body offset the campaign tracked for it, as in the index. The
+         * offset of a mutant need not be where a scan would find {@code <body>}, so only seed
+         * files, which are not indexed, are scanned.
+         */
+        synchronized TestCase readStoredEntry(long hash) {
+            byte[] data = readCorpusEntry(hash);
+            try {
+                long records = index.size() / INDEX_RECORD_BYTES;
+                MappedByteBuffer mapped = index.map(FileChannel.MapMode.READ_ONLY, 0, records * INDEX_RECORD_BYTES);
+                for (long i = 0; i < records; i++) {
+                    long indexed = mapped.getLong();
+                    int bodyOffset = mapped.getInt();
+                    mapped.getInt(); // length
+                    if (indexed == hash) {
+                        return new TestCase(data, bodyOffset, 0, null);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return TestCase.of(data);
+        }
+
+        void saveMinimized(CrashBucket bucket) {
+            write(crashesDirectory.resolve(fileName(bucket.signature()) + ".min.html"), bucket.minimized());
+        }
+
+        synchronized void saveCrash(CrashBucket bucket) {
+            String name = fileName(bucket.signature());
+            write(crashesDirectory.resolve(name + ".html"), bucket.input());
+            write(crashesDirectory.resolve(name + ".txt"), utf8(bucket.output()));
+            bucket.markSaved();
+        }
+
+        void savePerformanceBug(byte[] input, String report) {
+            String name = fileName(hash64(input));
+            write(slowDirectory.resolve(name + ".html"), input);
+            write(slowDirectory.resolve(name + ".txt"), utf8(report));
+        }
+
+        void saveHang(byte[] input) {
+            write(hangsDirectory.resolve(fileName(hash64(input)) + ".html"), input);
+        }
+
+        synchronized void saveCheckpoint() {
+            Properties checkpoint = new Properties();
+            checkpoint.setProperty("totalTestsRun", String.valueOf(totalTestsRun.get()));
+            checkpoint.setProperty("failedTests", String.valueOf(failedTests.get()));
+            checkpoint.setProperty("hangs", String.valueOf(hangs.get()));
+            checkpoint.setProperty("seed", String.valueOf(campaignSeed));
+            // A resumed run starts new streams, so test case ids stay unique across runs
+            checkpoint.setProperty("nextStream", String.valueOf(nextStream.get()));
+            checkpoint.setProperty("behaviours", corpus.behaviours().stream()
+                .map(Long::toHexString).collect(Collectors.joining(",")));
+            for (CrashBucket bucket : crashBuckets.values()) {
+                // A bucket is published before its input is written; the next checkpoint lists it
+                if (!bucket.saved()) {
+                    continue;
+                }
+                checkpoint.setProperty("bucket." + fileName(bucket.signature()),
+                    bucket.exitCode() + "," + bucket.hits() + (bucket.pulled() ? ",pulled" : ""));
+            }
+            scheduler.save(checkpoint);
+            try {
+                Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+                try (Writer writer = Files.newBufferedWriter(temporary)) {
+                    checkpoint.store(writer, "Fuzzer checkpoint");
+                }
+                Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Restores counters, RNG, corpus and crash buckets from a previous run. */
+        void resume() {
+            try {
+                if (Files.exists(checkpointFile)) {
+                    Properties checkpoint = new Properties();
+                    try (Reader reader = Files.newBufferedReader(checkpointFile)) {
+                        checkpoint.load(reader);
+                    }
+                    totalTestsRun.set(Integer.parseInt(checkpoint.getProperty("totalTestsRun", "0")));
+                    failedTests.set(Integer.parseInt(checkpoint.getProperty("failedTests", "0")));
+                    hangs.set(Integer.parseInt(checkpoint.getProperty("hangs", "0")));
+                    campaignSeed = Long.parseLong(checkpoint.getProperty("seed", String.valueOf(campaignSeed)));
+                    nextStream.set(Long.parseLong(checkpoint.getProperty("nextStream", "0")));
+                    for (String behaviour : checkpoint.getProperty("behaviours", "").split(",")) {
+                        if (!behaviour.isEmpty()) {
+                            corpus.behaviours().add(Long.parseUnsignedLong(behaviour, 16));
+                        }
+                    }
+                    for (String key : checkpoint.stringPropertyNames()) {
+                        if (key.startsWith("bucket.")) {
+                            String name = key.substring("bucket.".length());
+                            Path crash = crashesDirectory.resolve(name + ".html");
+                            Path output = crashesDirectory.resolve(name + ".txt");
+                            if (!Files.exists(crash) || !Files.exists(output)) {
+                                // Checkpoints of older runs could list a bucket before its input was written
+                                Log.info("Crash bucket %s has no input in %s and is not resumed".formatted(name, crashesDirectory));
+                                continue;
+                            }
+                            String[] fields = checkpoint.getProperty(key).split(",");
+                            CrashBucket bucket = new CrashBucket(Long.parseUnsignedLong(name, 16), Integer.parseInt(fields[0]));
+                            bucket.restore(Long.parseLong(fields[1]));
+                            if (fields.length > 2 && fields[2].equals("pulled")) {
+                                bucket.markPulled();
+                            }
+                            bucket.offer(Files.readAllBytes(crash), Files.readString(output));
+                            bucket.markSaved();
+                            Path minimized = crashesDirectory.resolve(name + ".min.html");
+                            if (Files.exists(minimized)) {
+                                bucket.setMinimized(Files.readAllBytes(minimized));
+                            }
+                            crashBuckets.put(bucket.signature(), bucket);
+                        }
+                    }
+                    scheduler.restore(checkpoint);
+                }
+                // Only the index is read here, the entries themselves are read when first mutated
+                long records = index.size() / INDEX_RECORD_BYTES;
+                MappedByteBuffer mapped = index.map(FileChannel.MapMode.READ_ONLY, 0, records * INDEX_RECORD_BYTES);
+                for (long i = 0; i < records; i++) {
+                    long hash = mapped.getLong();
+                    int bodyOffset = mapped.getInt();
+                    mapped.getInt(); // length
+                    corpus.addStored(hash, bodyOffset);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not resume from '%s'.".formatted(root), e);
+            }
+            Log.info("Resumed from %s: %d corpus entries, %d tests run before".formatted(root, corpus.size(), totalTestsRun.get()));
+        }
+
+        private static void write(Path file, byte[] bytes) {
+            try {
+                Files.write(file, bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        static String fileName(long hash) {
+            return String.format("%016x", hash);
+        }
+    }
+
+    /**
+     * Micro and end-to-end benchmarks, run with --bench. Each benchmark is warmed up and then run for
+     * a fixed time; the throughput of all of them is printed and written as JSON to the given file,
+     * so results of different runs can be compared.
+     */
+    static final class Benchmarks {
+        private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final long MEASUREMENT_NANOS = TimeUnit.SECONDS.toNanos(3);
+        private static final int[] INPUT_SIZES = {1 << 10, 1 << 14, 1 << 18, 1 << 20};
+        private static final int[] DELIVERY_SIZES = {1 << 14, 1 << 20};
+        private static final byte[] SNIPPET = utf8("<div>Valid Content</div>");
+
+        record Result(String benchmark, String parameter, long operations, double seconds) {
+            double operationsPerSecond() {
+                return operations / seconds;
+            }
+        }
+
+        @FunctionalInterface
+        interface Operation {
+            long run() throws Exception;
+        }
+
+        private final Target target;
+        private final List<Mutator> mutators;
+        private final List<Result> results = new ArrayList<>();
+        // Keeps the results of the operations alive, so the JIT cannot drop the work
+        private long sink;
+
+        Benchmarks(Target target, List<Mutator> mutators) {
+            this.target = target;
+            this.mutators = mutators;
+        }
+
+        void run(Path resultsFile) {
+            MutationBuffer buffer = new MutationBuffer();
+            TestCase seed = seeds.get(0);
+            PrintStream console = System.out;
+            for (Mutator mutator : mutators) {
+                measure(console, "mutator", mutator.name(), () -> {
+                    buffer.load(seed);
+                    mutator.apply(buffer);
+                    return buffer.toTestCase().data().length;
+                });
+            }
+            for (int size : INPUT_SIZES) {
+                TestCase input = inputOfSize(size);
+                measure(console, "insertIntoBody", size + " bytes", () -> {
+                    buffer.load(input);
+                    buffer.insertAtBody().put(SNIPPET);
+                    return buffer.toTestCase().data().length;
+                });
+            }
+            measureExecutions(console, "execution", "target", target, seeds.get(0).data());
+            if (!System.getProperty("os.name").toLowerCase().startsWith("windows")) {
+                try (Target stub = new ProcessTarget(new ProcessPool(new ProcessBuilder("cat").redirectErrorStream(true), prespawn))) {
+                    measureExecutions(console, "execution", "cat stub", stub, seeds.get(0).data());
+                    // Large inputs through a pipe against a file the stub's stdin is redirected from
+                    try (Target fileStub = new ProcessTarget(new InputFiles(() -> new ProcessBuilder("cat").redirectErrorStream(true)))) {
+                        for (int size : DELIVERY_SIZES) {
+                            byte[] input = inputOfSize(size).data();
+                            measureExecutions(console, "stdin delivery", "pipe, " + size + " bytes", stub, input);
+                            measureExecutions(console, "stdin delivery", "file, " + size + " bytes", fileStub, input);
+                        }
+                    }
+                }
+            }
+            writeJson(resultsFile);
+            console.println("\nBenchmark results written to " + resultsFile);
+        }
+
+        private void measureExecutions(PrintStream console, String benchmark, String parameter, Target target, byte[] input) {
+            // One loop per worker, so the result is the throughput with the configured --jobs
+            List<Future<Result>> loops = new ArrayList<>();
+            for (int worker = 0; worker < jobs; worker++) {
+                loops.add(executor.submit(() -> time(benchmark, parameter, () -> target.run(input).exitCode())));
+            }
+            long operations = 0;
+            double seconds = 0;
+            for (Future<Result> loop : loops) {
+                try {
+                    Result result = loop.get();
+                    operations += result.operations();
+                    seconds = Math.max(seconds, result.seconds());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            record(console, new Result(benchmark, parameter, operations, seconds));
+        }
+
+        private void measure(PrintStream console, String benchmark, String parameter, Operation operation) {
+            record(console, time(benchmark, parameter, operation));
+        }
+
+        private Result time(String benchmark, String parameter, Operation operation) {
+            try {
+                long consumed = 0;
+                long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+                while (System.nanoTime() < warmupEnd) {
+                    consumed += operation.run();
+                }
+                long operations = 0;
+                long start = System.nanoTime();
+                long end = start + MEASUREMENT_NANOS;
+                long now = start;
+                while (now < end) {
+                    consumed += operation.run();
+                    operations++;
+                    now = System.nanoTime();
+                }
+                synchronized (this) {
+                    sink += consumed;
+                }
+                return new Result(benchmark, parameter, operations, (now - start) / 1e9);
+            } catch (Exception e) {
+                throw new RuntimeException("Benchmark %s (%s) failed.".formatted(benchmark, parameter), e);
+            }
+        }
+
+        private synchronized void record(PrintStream console, Result result) {
+            results.add(result);
+            console.printf("%-16s %-22s %14.1f ops/s %12.1f ns/op%n", result.benchmark(), result.parameter(),
+                result.operationsPerSecond(), 1e9 / result.operationsPerSecond());
+        }
+
+        private static TestCase inputOfSize(int size) {
+            StringBuilder body = new StringBuilder();
+            while (body.length() < size) {
+                body.append("<p>lorem ipsum dolor sit amet</p>");
+            }
+            return TestCase.of("<html><body>" + body + "</body></html>");
+        }
+
+        private void writeJson(Path resultsFile) {
+            StringBuilder json = new StringBuilder("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                json.append("  {\"benchmark\": \"").append(result.benchmark())
+                    .append("\", \"parameter\": \"").append(result.parameter())
+                    .append("\", \"operations\": ").append(result.operations())
+                    .append(", \"seconds\": ").append(String.format(Locale.ROOT, "%.3f", result.seconds()))
+                    .append(", \"opsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", result.operationsPerSecond()))
+                    .append(", \"nsPerOp\": ").append(String.format(Locale.ROOT, "%.1f", 1e9 / result.operationsPerSecond()))
+                    .append(i + 1 < results.size() ? "},\n" : "}\n");
+            }
+            json.append("]\n");
+            try {
+                Files.writeString(resultsFile, json);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write benchmark results to '%s'.".formatted(resultsFile), e);
+            }
+        }
+    }
+
+    /**
+     * Campaign metrics: executions per second, a log-linear histogram of execution times (in the
+     * style of HdrHistogram, 16 sub-buckets per power of two of microseconds, so within about 6%)
+     * and, per mutator, how many executed inputs it took part in, how many of those failed and how
+     * many opened a new crash bucket. Recording only touches atomic counters, so the workers never
+     * wait on each other. The metrics are printed as a status line every --status-interval seconds
+     * and served in Prometheus text format on --metrics-port.
+     */
+    static final class Metrics {
+        private static final int LINEAR_BUCKETS = 32;
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HISTOGRAM_BUCKETS = LINEAR_BUCKETS + (64 - 5) * SUB_BUCKETS;
+
+        private final List<Mutator> mutators;
+        private final long startNanos = System.nanoTime();
+        private final LongAdder executions = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray mutatorUses;
+        private final AtomicLongArray mutatorFailures;
+        private final AtomicLongArray mutatorNewBuckets;
+        private HttpServer server;
+
+        Metrics(List<Mutator> mutators) {
+            this.mutators = List.copyOf(mutators);
+            this.mutatorUses = new AtomicLongArray(mutators.size());
+            this.mutatorFailures = new AtomicLongArray(mutators.size());
+            this.mutatorNewBuckets = new AtomicLongArray(mutators.size());
+        }
+
+        void recordExecution(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            executions.increment();
+            histogram.incrementAndGet(bucketOf(micros));
+            maxMicros.accumulate(micros);
+        }
+
+        void recordYield(long appliedMutators, boolean failed, boolean newBucket) {
+            for (long remaining = appliedMutators; remaining != 0; remaining &= remaining - 1) {
+                int index = Long.numberOfTrailingZeros(remaining);
+                mutatorUses.incrementAndGet(index);
+                if (failed) {
+                    mutatorFailures.incrementAndGet(index);
+                }
+                if (newBucket) {
+                    mutatorNewBuckets.incrementAndGet(index);
+                }
+            }
+        }
+
+        private static int bucketOf(long micros) {
+            if (micros < LINEAR_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_BUCKETS + (exponent - 5) * SUB_BUCKETS + subBucket;
+        }
+
+        /** Largest value that falls into the bucket. */
+        private static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 5;
+            int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        long percentileMicros(double percentile) {
+            long total = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                total += histogram.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(upperBoundOf(i), maxMicros.get());
+                }
+            }
+            return 0;
+        }
+
+        double executionsPerSecond() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return seconds > 0 ? executions.sum() / seconds : 0;
+        }
+
+        String statusLine() {
+            return String.format("[%ds] %d execs (%.1f/s), %d failed, %d hangs, %d buckets, %d corpus, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos), executions.sum(), executionsPerSecond(),
+                failedTests.get(), hangs.get(), crashBuckets.size(), corpus.size(),
+                percentileMicros(50) / 1e3, percentileMicros(99) / 1e3, maxMicros.get() / 1e3);
+        }
+
+        String prometheus() {
+            StringBuilder text = new StringBuilder();
+            text.append("# TYPE fuzzer_executions_total counter\n")
+                .append("fuzzer_executions_total ").append(executions.sum()).append('\n')
+                .append("# TYPE fuzzer_executions_per_second gauge\n")
+                .append("fuzzer_executions_per_second ").append(String.format(Locale.ROOT, "%.3f", executionsPerSecond())).append('\n')
+                .append("# TYPE fuzzer_failed_tests_total counter\n")
+                .append("fuzzer_failed_tests_total ").append(failedTests.get()).append('\n')
+                .append("# TYPE fuzzer_hangs_total counter\n")
+                .append("fuzzer_hangs_total ").append(hangs.get()).append('\n')
+                .append("# TYPE fuzzer_crash_buckets gauge\n")
+                .append("fuzzer_crash_buckets ").append(crashBuckets.size()).append('\n')
+                .append("# TYPE fuzzer_corpus_entries gauge\n")
+                .append("fuzzer_corpus_entries ").append(corpus.size()).append('\n')
+                .append("# TYPE fuzzer_execution_seconds summary\n");
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 1.0}) {
+                text.append("fuzzer_execution_seconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.6f", percentileMicros(quantile * 100) / 1e6)).append('\n');
+            }
+            text.append("fuzzer_execution_seconds_count ").append(executions.sum()).append('\n');
+            appendPerMutator(text, "fuzzer_mutator_executions_total", mutatorUses);
+            appendPerMutator(text, "fuzzer_mutator_failures_total", mutatorFailures);
+            appendPerMutator(text, "fuzzer_mutator_new_buckets_total", mutatorNewBuckets);
+            return text.toString();
+        }
+
+        private void appendPerMutator(StringBuilder text, String name, AtomicLongArray counters) {
+            text.append("# TYPE ").append(name).append(" counter\n");
+            for (int i = 0; i < mutators.size(); i++) {
+                text.append(name).append("{mutator=\"").append(mutators.get(i).name()).append("\"} ")
+                    .append(counters.get(i)).append('\n');
+            }
+        }
+
+        void serve(int port) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = utf8(prometheus());
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream response = exchange.getResponseBody()) {
+                        response.write(body);
+                    }
+                });
+                server.setExecutor(Executors.newSingleThreadExecutor(daemonThreads("metrics")));
+                server.start();
+                Log.info("Serving metrics on http://" + server.getAddress().getHostString() + ":" + port + "/metrics");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not serve metrics on port %d.".formatted(port), e);
+            }
+        }
+
+        void stop() {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+
+        void printSummary() {
+            System.out.println("\nThroughput:");
+            System.out.println(statusLine());
+            System.out.println("\nMutator Yield:");
+            System.out.printf("%-22s %10s %10s %12s%n", "mutator", "execs", "failures", "new buckets");
+            for (int i = 0; i < mutators.size(); i++) {
+                System.out.printf("%-22s %10d %10d %12d%n", mutators.get(i).name(),
+                    mutatorUses.get(i), mutatorFailures.get(i), mutatorNewBuckets.get(i));
+            }
+        }
+    }
+
+    /**
+     * How long the campaign runs. Without limits, every corpus entry is fuzzed once in each phase;
+     * with --duration or --max-execs, fuzzing continues until the time or the number of executions
+     * is used up, and --plateau stops it earlier once no new crash bucket or corpus entry was found
+     * for that many seconds.
+     */
+    static final class Budget {
+        private final long deadlineNanos;
+        private final long maxExecutions;
+        private final long plateauNanos;
+        private final long startExecutions = totalTestsRun.get();
+        private final long startNanos = System.nanoTime();
+        private volatile long lastProgressNanos = startNanos;
+        private volatile String stopReason;
+
+        Budget(long durationSeconds, long maxExecutions, long plateauSeconds) {
+            this.deadlineNanos = durationSeconds > 0 ? startNanos + TimeUnit.SECONDS.toNanos(durationSeconds) : 0;
+            this.maxExecutions = maxExecutions;
+            this.plateauNanos = TimeUnit.SECONDS.toNanos(plateauSeconds);
+        }
+
+        boolean isLimited() {
+            return deadlineNanos != 0 || maxExecutions > 0;
+        }
+
+        void progress() {
+            lastProgressNanos = System.nanoTime();
+        }
+
+        boolean exhausted() {
+            if (stopReason != null) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (deadlineNanos != 0 && now - deadlineNanos >= 0) {
+                stopReason = "duration used up";
+            } else if (maxExecutions > 0 && totalTestsRun.get() - startExecutions >= maxExecutions) {
+                stopReason = "maximum executions reached";
+            } else if (plateauNanos > 0 && now - lastProgressNanos >= plateauNanos) {
+                stopReason = "no new crash bucket or corpus entry for "
+                    + TimeUnit.NANOSECONDS.toSeconds(plateauNanos) + " s";
+            }
+            return stopReason != null;
+        }
+
+        String stopReason() {
+            return stopReason;
+        }
+
+        @Override
+        public String toString() {
+            List<String> limits = new ArrayList<>();
+            if (deadlineNanos != 0) {
+                limits.add(TimeUnit.NANOSECONDS.toSeconds(deadlineNanos - startNanos) + " s");
+            }
+            if (maxExecutions > 0) {
+                limits.add(maxExecutions + " executions");
+            }
+            if (plateauNanos > 0) {
+                limits.add("plateau after " + TimeUnit.NANOSECONDS.toSeconds(plateauNanos) + " s");
+            }
+            return String.join(", ", limits);
+        }
+    }
+
+    /**
+     * Chooses mutators with Thompson sampling. Each mutator has a Beta posterior over the chance
+     * that a mutant it took part in finds new behaviour or a new crash bucket; a draw from every
+     * posterior is taken and the highest wins, so productive mutators are picked more often while
+     * uncertain ones still get tried. One pick in {@link #EXPLORATION_ONE_IN} is uniform, so no
+     * mutator is ever starved. The counts are kept in the checkpoint, so a resumed campaign keeps
+     * what it learned.
+     */
+    static final class MutatorScheduler {
+        private static final int EXPLORATION_ONE_IN = 10;
+
+        private final List<Mutator> mutators;
+        private final AtomicLongArray trials;
+        private final AtomicLongArray successes;
+        private final AtomicLongArray selections;
+
+        MutatorScheduler(List<Mutator> mutators) {
+            this.mutators = List.copyOf(mutators);
+            this.trials = new AtomicLongArray(mutators.size());
+            this.successes = new AtomicLongArray(mutators.size());
+            this.selections = new AtomicLongArray(mutators.size());
+        }
+
+        int select(RandomGenerator random) {
+            int chosen;
+            if (random.nextInt(EXPLORATION_ONE_IN) == 0) {
+                chosen = random.nextInt(mutators.size());
+            } else {
+                chosen = 0;
+                double best = -1;
+                for (int i = 0; i < mutators.size(); i++) {
+                    long wins = successes.get(i);
+                    double draw = sampleBeta(random, 1 + wins, 1 + Math.max(0, trials.get(i) - wins));
+                    if (draw > best) {
+                        best = draw;
+                        chosen = i;
+                    }
+                }
+            }
+            selections.incrementAndGet(chosen);
+            return chosen;
+        }
+
+        /** Credits every mutator that produced a tested input. */
+        void reward(long appliedMutators, boolean productive) {
+            for (long remaining = appliedMutators; remaining != 0; remaining &= remaining - 1) {
+                int index = Long.numberOfTrailingZeros(remaining);
+                trials.incrementAndGet(index);
+                if (productive) {
+                    successes.incrementAndGet(index);
+                }
+            }
+        }
+
+        /** Posterior mean of every mutator, normalized to sum to one. */
+        double[] weights() {
+            double[] weights = new double[mutators.size()];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (1.0 + successes.get(i)) / (2.0 + trials.get(i));
+                total += weights[i];
+            }
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] /= total;
+            }
+            return weights;
+        }
+
+        void save(Properties checkpoint) {
+            for (int i = 0; i < mutators.size(); i++) {
+                checkpoint.setProperty("mutator." + mutators.get(i).name(),
+                    trials.get(i) + "," + successes.get(i) + "," + selections.get(i));
+            }
+        }
+
+        void restore(Properties checkpoint) {
+            for (int i = 0; i < mutators.size(); i++) {
+                String saved = checkpoint.getProperty("mutator." + mutators.get(i).name());
+                if (saved != null) {
+                    String[] counts = saved.split(",");
+                    trials.set(i, Long.parseLong(counts[0]));
+                    successes.set(i, Long.parseLong(counts[1]));
+                    selections.set(i, Long.parseLong(counts[2]));
+                }
+            }
+        }
+
+        void printSummary() {
+            double[] weights = weights();
+            long totalSelections = 0;
+            for (int i = 0; i < mutators.size(); i++) {
+                totalSelections += selections.get(i);
+            }
+            System.out.println("\nMutator Selection:");
+            System.out.printf("%-22s %10s %8s %10s %8s%n", "mutator", "picks", "share", "finds", "weight");
+            for (int i = 0; i < mutators.size(); i++) {
+                System.out.printf("%-22s %10d %7.1f%% %10d %7.1f%%%n", mutators.get(i).name(), selections.get(i),
+                    100.0 * selections.get(i) / Math.max(1, totalSelections), successes.get(i), 100 * weights[i]);
+            }
+        }
+
+        private static double sampleBeta(RandomGenerator random, double alpha, double beta) {
+            double x = sampleGamma(random, alpha);
+            return x / (x + sampleGamma(random, beta));
+        }
+
+        /** Marsaglia and Tsang's method, valid for shape >= 1. */
+        private static double sampleGamma(RandomGenerator random, double shape) {
+            double d = shape - 1.0 / 3;
+            double c = 1 / Math.sqrt(9 * d);
+            while (true) {
+                double x = random.nextGaussian();
+                double v = 1 + c * x;
+                if (v <= 0) {
+                    continue;
+                }
+                v = v * v * v;
+                double u = random.nextDouble();
+                if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+                    return d * v;
+                }
+            }
+        }
+    }
+
+    enum LogLevel { QUIET, NORMAL, VERBOSE }
+
+    /**
+     * Leveled logger that keeps console output off the workers. Messages go into a bounded ring
+     * buffer and a background thread writes them out; verbose messages are dropped rather than
+     * waited for when the buffer is full. Full inputs are written to the input log file instead of
+     * the console.
+     *
+     * <p>{@code --quiet} only leaves errors and the final summary, the default adds the status line,
+     * new crash buckets and hangs, and {@code --verbose} adds every mutation and test.
+     */
+    static final class Log {
+        private static final int CAPACITY = 16384;
+
+        // file is null for the console
+        private record Event(String text, Path file, CountDownLatch flushed) {}
+
+        static volatile LogLevel level = LogLevel.NORMAL;
+        static volatile Path inputLogFile = Paths.get("fuzzer-inputs.log");
+        // Where every generated test case is recorded for --replay; null when there is no --out
+        static volatile Path testCaseLogFile;
+        private static final BlockingQueue<Event> events = new ArrayBlockingQueue<>(CAPACITY);
+        private static final LongAdder dropped = new LongAdder();
+
+        static {
+            Thread writer = daemonThreads("log").newThread(Log::writeEvents);
+            writer.start();
+        }
+
+        static boolean isVerbose() {
+            return level == LogLevel.VERBOSE;
+        }
+
+        static void verbose(String message) {
+            if (level == LogLevel.VERBOSE && !events.offer(new Event(message, null, null))) {
+                dropped.increment();
+            }
+        }
+
+        static void info(String message) {
+            if (level != LogLevel.QUIET) {
+                enqueue(new Event(message, null, null));
+            }
+        }
+
+        static void error(String message, Throwable error) {
+            StringWriter stackTrace = new StringWriter();
+            error.printStackTrace(new PrintWriter(stackTrace));
+            enqueue(new Event(message + System.lineSeparator() + stackTrace, null, null));
+        }
+
+        static void input(String description, byte[] input) {
+            enqueue(new Event(description + System.lineSeparator() + new String(input, StandardCharsets.UTF_8)
+                + System.lineSeparator(), inputLogFile, null));
+        }
+
+        static void testCase(String record) {
+            enqueue(new Event(record, testCaseLogFile, null));
+        }
+
+        /** Waits until everything logged so far is written. */
+        static void flush() {
+            CountDownLatch flushed = new CountDownLatch(1);
+            enqueue(new Event(null, null, flushed));
+            try {
+                flushed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (dropped.sum() > 0) {
+                System.out.println("(" + dropped.sum() + " verbose log messages dropped)");
+            }
+        }
+
+        private static void enqueue(Event event) {
+            try {
+                events.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static void writeEvents() {
+            Writer console = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+            Map<Path, Writer> files = new HashMap<>();
+            while (true) {
+                try {
+                    Event event = events.take();
+                    if (event.flushed() != null) {
+                        console.flush();
+                        for (Writer file : files.values()) {
+                            file.flush();
+                        }
+                        event.flushed().countDown();
+                        continue;
+                    }
+                    Writer writer = console;
+                    if (event.file() != null) {
+                        writer = files.get(event.file());
+                        if (writer == null) {
+                            writer = Files.newBufferedWriter(event.file(), StandardCharsets.UTF_8,
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                            files.put(event.file(), writer);
+                        }
+                    }
+                    writer.write(event.text());
+                    writer.write(System.lineSeparator());
+                    if (events.isEmpty()) {
+                        console.flush();
+                        for (Writer file : files.values()) {
+                            file.flush();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Could not write log: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String abbreviate(String text, int maxLength) {
+        String singleLine = text.replaceAll("\\s+", " ").trim();
+        return singleLine.length() <= maxLength ? singleLine : singleLine.substring(0, maxLength - 3) + "...";
+    }
+
+    private static void testWithBacktracking(Corpus.Entry entry, List<Mutator> mutators, Target target, int numberOfMutations) {
+        Log.verbose("Generating and testing mutations with backtracking...");
+        getMutatedInputsWithBacktracking(entry, mutators, target, numberOfMutations);
+    }
+    
+    private static void testWithoutBacktracking(Target target, Corpus.Entry entry, Iterator<TestCase> mutations, int totalMutations) {
+        Log.verbose("Testing original seed input...");
+        testInput(target, null, entry.input());
+        // Generation runs on this thread and only stays a few mutants ahead of the workers
+        int maxInFlight = jobs * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger started = new AtomicInteger();
+        // Crashes do not end the round; the crash buckets take care of repeats
+        while (!budget.exhausted() && mutations.hasNext()) {
+            TestCase input = mutations.next();
+            inFlight.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    if (Log.isVerbose()) {
+                        Log.verbose("Testing mutation %d/%d (Failed: %d)...".formatted(
+                            started.incrementAndGet(), totalMutations, failedTests.get()));
+                    }
+                    testInput(target, entry, input);
+                } finally {
+                    inFlight.release();
+                }
+            });
         }
-        System.out.println();
+        inFlight.acquireUninterruptibly(maxInFlight);
     }
 
-}
\ No newline at end of file
+}